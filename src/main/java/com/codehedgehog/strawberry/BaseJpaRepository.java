@@ -1,10 +1,14 @@
 package com.codehedgehog.strawberry;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.lang.Nullable;
 
 import java.io.Serializable;
+import java.util.*;
 
 /**
  * Created by Jon on 1/19/2019.
@@ -12,7 +16,108 @@ import java.io.Serializable;
 @NoRepositoryBean
 public interface BaseJpaRepository<T, ID extends Serializable>
         extends JpaRepository<T, ID>, JpaSpecificationExecutor<T> {
+    int DEFAULT_ID_BATCH_SIZE = 128;
+    int DEFAULT_UPSERT_BATCH_SIZE = 1000;
+
     default T findOne(ID id) {
         return (T) findById(id).orElse(null);
     }
+
+    default List<T> findMultiple(Collection<ID> ids) {
+        return findMultiple(ids, DEFAULT_ID_BATCH_SIZE);
+    }
+
+    /**
+     * Finds the entities for each ID, querying those not already loaded or cached in batches of at most the given
+     * size. A repository not created with {@link BaseJpaRepositoryImpl} as its base class finds each ID in turn.
+     * @param ids IDs of the entities to find
+     * @param batchSize maximum number of IDs in a single query
+     * @return entities in the same order as the IDs, with null in place of any not found
+     */
+    default List<T> findMultiple(Collection<ID> ids, int batchSize) {
+        BaseJpaRepositoryImpl<T, ID> implementation = BaseJpaRepositoryImpl.getImplementation(this);
+        if (implementation != null) {
+            return implementation.findMultiple(ids, batchSize);
+        }
+        Map<ID, T> foundEntities = new HashMap<>();
+        List<T> entities = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            entities.add(foundEntities.computeIfAbsent(id, this::findOne));
+        }
+        return entities;
+    }
+
+    default UpsertResult upsertAll(Iterable<? extends T> entities) {
+        return upsertAll(entities, DEFAULT_UPSERT_BATCH_SIZE);
+    }
+
+    /**
+     * Inserts or updates each entity by its ID with a single statement per row, sent in JDBC batches. This
+     * bypasses the persistence context, so entities already loaded are not refreshed. Columns that are not
+     * updatable keep their existing values and the version of an existing row is incremented rather than
+     * overwritten, without checking the entity's version against it. The {@code @LastModifiedDate} column, if any,
+     * is set to the time of the upsert so change feeds report the rows.
+     * @param entities entities to upsert - each must have its ID set
+     * @param batchSize maximum number of rows in a single JDBC batch
+     * @return counts of rows inserted and updated
+     * @throws UnsupportedOperationException if the repository was not created with {@link BaseJpaRepositoryImpl}
+     * as its base class
+     */
+    default UpsertResult upsertAll(Iterable<? extends T> entities, int batchSize) {
+        return BaseJpaRepositoryImpl.<T, ID>requireImplementation(this, "Upserting").upsertAll(entities, batchSize);
+    }
+
+    /**
+     * Finds a page of entities without counting every match, as {@code findAll(spec, pageable)} does. A repository
+     * not created with {@link BaseJpaRepositoryImpl} as its base class still counts them.
+     * @param spec specification to match, or null for all entities
+     * @param pageable page to find
+     * @return entities on the page
+     */
+    default List<T> findSlice(@Nullable Specification<T> spec, Pageable pageable) {
+        BaseJpaRepositoryImpl<T, ID> implementation = BaseJpaRepositoryImpl.getImplementation(this);
+        if (implementation != null) {
+            return implementation.findSlice(spec, pageable);
+        }
+        return pageable.isPaged() ? findAll(spec, pageable).getContent() : findAll(spec, pageable.getSort());
+    }
+
+    /**
+     * Counts the entities matching the specification in the database, stopping once there are more than the limit.
+     * A repository not created with {@link BaseJpaRepositoryImpl} as its base class counts every match.
+     * @param spec specification to match, or null for all entities
+     * @param limit highest count needed
+     * @return number of matching entities, or limit + 1 if there are more than the limit
+     */
+    default long countUpTo(@Nullable Specification<T> spec, long limit) {
+        BaseJpaRepositoryImpl<T, ID> implementation = BaseJpaRepositoryImpl.getImplementation(this);
+        if (implementation != null) {
+            return implementation.countUpTo(spec, limit);
+        }
+        return Math.min(count(spec), limit + 1);
+    }
+
+    /**
+     * Estimates the number of entities matching the specification without counting them all. A repository not
+     * created with {@link BaseJpaRepositoryImpl} as its base class counts them exactly.
+     * @param spec specification to match, or null for all entities
+     * @return approximate number of matching entities
+     */
+    default long estimateCount(@Nullable Specification<T> spec) {
+        BaseJpaRepositoryImpl<T, ID> implementation = BaseJpaRepositoryImpl.getImplementation(this);
+        if (implementation != null) {
+            return implementation.estimateCount(spec);
+        }
+        return count(spec);
+    }
+
+    /**
+     * Gets where the database places nulls when a sort does not say, so results can be ordered in Java to match
+     * @return null ordering of the database
+     * @throws UnsupportedOperationException if the repository was not created with {@link BaseJpaRepositoryImpl}
+     * as its base class
+     */
+    default NullOrdering getNullOrdering() {
+        return BaseJpaRepositoryImpl.requireImplementation(this, "Reading the null ordering").getNullOrdering();
+    }
 }
@@ -0,0 +1,572 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.lang.Nullable;
+import org.springframework.orm.jpa.EntityManagerFactoryInfo;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.*;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository base class for {@link BaseJpaRepository}. Register it with
+ * {@code @EnableJpaRepositories(repositoryBaseClass = BaseJpaRepositoryImpl.class)}.
+ */
+public class BaseJpaRepositoryImpl<T, ID extends Serializable> extends SimpleJpaRepository<T, ID>
+        implements BaseJpaRepository<T, ID> {
+
+    protected final JpaEntityInformation<T, ?> entityInformation;
+    protected final EntityManager entityManager;
+
+    static final boolean HIBERNATE_PRESENT = ClassUtils.isPresent(
+            "org.hibernate.engine.spi.SessionImplementor", BaseJpaRepositoryImpl.class.getClassLoader());
+    private static final int ESTIMATE_SAMPLE_WINDOWS = 4;
+    private static final int ESTIMATE_SAMPLE_WINDOW_SIZE = 250;
+    private static final long ROW_COUNT_TIME_TO_LIVE = TimeUnit.MINUTES.toNanos(1);
+    private static final String POSTGRESQL_ROW_ESTIMATE_SQL =
+            "SELECT CAST(reltuples AS BIGINT) FROM pg_class WHERE oid = to_regclass(?)";
+    private static final String MYSQL_ROW_ESTIMATE_SQL = "SELECT TABLE_ROWS FROM information_schema.TABLES "
+            + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+    private static final String H2_ROW_ESTIMATE_SQL = "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES "
+            + "WHERE TABLE_SCHEMA = SCHEMA() AND UPPER(TABLE_NAME) = UPPER(?)";
+
+    private volatile Boolean hibernate;
+    private volatile JdbcTemplate jdbcTemplate;
+    private volatile String databaseName;
+    private volatile NullOrdering nullOrdering;
+    private volatile UpsertDialect upsertDialect;
+    private volatile EntityTableMapping<T> tableMapping;
+    private volatile CachedRowCount cachedRowCount;
+
+    public BaseJpaRepositoryImpl(JpaEntityInformation<T, ?> entityInformation, EntityManager entityManager) {
+        super(entityInformation, entityManager);
+        this.entityInformation = entityInformation;
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Finds the entities for each ID. Entities the transaction's persistence context already holds are taken from it
+     * when Hibernate is the provider, those held in the shared cache are loaded individually from it, and the remainder
+     * are queried in batches whose sizes are padded up to the next power of two, so only a handful of distinct
+     * statements are ever prepared regardless of how many IDs are asked for.
+     * @param ids IDs of the entities to find
+     * @param batchSize maximum number of IDs in a single query
+     * @return entities in the same order as the IDs, with null in place of any not found
+     */
+    @Override
+    public List<T> findMultiple(Collection<ID> ids, int batchSize) {
+        Assert.notNull(ids, "IDs must not be null");
+        Assert.isTrue(batchSize > 0, "Batch size must be greater than zero");
+        Map<Object, T> foundEntities = new HashMap<>();
+        List<ID> uncachedIds = new ArrayList<>();
+        Cache cache = entityManager.getEntityManagerFactory().getCache();
+        boolean persistenceContextBound = this.isHibernate()
+                && TransactionSynchronizationManager.hasResource(entityManager.getEntityManagerFactory());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            T loadedEntity = persistenceContextBound
+                    ? HibernateSupport.getLoadedEntity(entityManager, getDomainClass(), id) : null;
+            if (loadedEntity != null) {
+                foundEntities.put(id, loadedEntity);
+            } else if (cache != null && cache.contains(getDomainClass(), id)) {
+                T entity = entityManager.find(getDomainClass(), id);
+                if (entity != null) {
+                    foundEntities.put(id, entity);
+                }
+            } else {
+                uncachedIds.add(id);
+            }
+        }
+
+        Map<Integer, TypedQuery<T>> queriesBySize = new HashMap<>();
+        for (int start = 0; start < uncachedIds.size(); start += batchSize) {
+            List<ID> batch = uncachedIds.subList(start, Math.min(start + batchSize, uncachedIds.size()));
+            int paddedSize = getPaddedBatchSize(batch.size(), batchSize);
+            TypedQuery<T> query = queriesBySize.computeIfAbsent(paddedSize, this::createIdQuery);
+            this.bindIds(query, batch, paddedSize);
+            for (T entity : query.getResultList()) {
+                foundEntities.put(entityInformation.getId(entity), entity);
+            }
+        }
+
+        List<T> entities = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            entities.add(foundEntities.get(id));
+        }
+        return entities;
+    }
+
+    /**
+     * Inserts or updates each entity by its ID using the dialect's upsert statement. Rows repeated within a batch
+     * are sent once, keeping the last. Inserted and updated counts come from checking which IDs of each batch
+     * already exist immediately before it is sent.
+     * @param entities entities to upsert - each must have its ID set
+     * @param batchSize maximum number of rows in a single JDBC batch
+     * @return counts of rows inserted and updated
+     */
+    @Override
+    @Transactional
+    public UpsertResult upsertAll(Iterable<? extends T> entities, int batchSize) {
+        Assert.notNull(entities, "Entities must not be null");
+        Assert.isTrue(batchSize > 0, "Batch size must be greater than zero");
+        entityManager.flush();
+        EntityTableMapping<T> mapping = getTableMapping();
+        String upsertSql = getUpsertDialect().getUpsertSql(mapping);
+        UpsertResult result = new UpsertResult(0, 0);
+        Map<List<Object>, Object[]> batch = new LinkedHashMap<>();
+        for (T entity : entities) {
+            List<Object> idValues = Arrays.asList(mapping.getIdValues(entity));
+            Assert.isTrue(!idValues.contains(null), "Upserted entities must have an ID");
+            batch.remove(idValues);
+            batch.put(idValues, getUpsertDialect().getUpsertValues(mapping, mapping.getColumnValues(entity)));
+            if (batch.size() >= batchSize) {
+                result = result.add(this.executeUpsertBatch(mapping, upsertSql, batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            result = result.add(this.executeUpsertBatch(mapping, upsertSql, batch));
+        }
+        Cache cache = entityManager.getEntityManagerFactory().getCache();
+        if (cache != null) {
+            cache.evict(getDomainClass());
+        }
+        return result;
+    }
+
+    @Override
+    public List<T> findSlice(@Nullable Specification<T> spec, Pageable pageable) {
+        TypedQuery<T> query = getQuery(spec, pageable.getSort());
+        if (pageable.isPaged()) {
+            query.setFirstResult((int) pageable.getOffset());
+            query.setMaxResults(pageable.getPageSize());
+        }
+        return query.getResultList();
+    }
+
+    /**
+     * Counts the matching entities in the database. A first query asks for the match one past the limit, without
+     * any ordering so the database stops as soon as it reaches it. Only when there is no such match are the matches
+     * counted, so at most one ID is read and the full count never covers more than the limit.
+     * @param spec specification to match, or null for all entities
+     * @param limit highest count needed
+     * @return number of matching entities, or limit + 1 if there are more than the limit
+     */
+    @Override
+    public long countUpTo(@Nullable Specification<T> spec, long limit) {
+        Assert.isTrue(limit >= 0 && limit < Integer.MAX_VALUE, "Limit must be between zero and Integer.MAX_VALUE");
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object> query = criteriaBuilder.createQuery(Object.class);
+        Root<T> root = query.from(getDomainClass());
+        query.select(root.get(entityInformation.getIdAttribute()));
+        Map<String, Object> parameterValues = new HashMap<>();
+        Predicate predicate = spec == null ? null
+                : QueryParameters.collect(parameterValues, () -> spec.toPredicate(root, query, criteriaBuilder));
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        TypedQuery<Object> typedQuery = QueryParameters.bind(entityManager.createQuery(query), parameterValues);
+        if (!typedQuery.setFirstResult((int) limit).setMaxResults(1).getResultList().isEmpty()) {
+            return limit + 1;
+        }
+        return count(spec);
+    }
+
+    /**
+     * Estimates the number of matching entities as the table's row count multiplied by the share of rows matching
+     * in a sample. The row count is the database's own estimate on PostgreSQL, MySQL, MariaDB and H2, and an exact
+     * count of the whole table elsewhere, and is remembered for a minute. The sample is taken from a few windows of
+     * consecutive IDs starting at random points, so each window is read through the primary key.
+     * Entities without a single integer ID cannot be sampled at random points and are counted exactly.
+     * @param spec specification to match, or null for all entities
+     * @return approximate number of matching entities
+     */
+    @Override
+    public long estimateCount(@Nullable Specification<T> spec) {
+        if (entityInformation.hasCompositeId() || !this.hasIntegerId()) {
+            return count(spec);
+        }
+        long tableRows = this.getEstimatedRowCount();
+        if (spec == null || tableRows == 0) {
+            return tableRows;
+        }
+        long sampledRows = 0;
+        long matchingRows = 0;
+        for (Object start : this.getSampleStarts()) {
+            List<Object> ids = this.getSampleIds(start);
+            if (!ids.isEmpty()) {
+                sampledRows += ids.size();
+                matchingRows += this.countBetween(spec, ids.get(0), ids.get(ids.size() - 1));
+            }
+        }
+        return sampledRows == 0 ? 0 : Math.round((double) tableRows * matchingRows / sampledRows);
+    }
+
+    /**
+     * Gets the implementation behind a repository, looking through the proxy Spring Data creates around it
+     * @param repository repository or its proxy
+     * @param <T> entity type
+     * @param <ID> ID type
+     * @return the implementation, or null if the repository was not created with this base class
+     */
+    static <T, ID extends Serializable> BaseJpaRepositoryImpl<T, ID> getImplementation(Object repository) {
+        Object target = repository;
+        if (!(target instanceof BaseJpaRepositoryImpl)) {
+            target = AopProxyUtils.getSingletonTarget(repository);
+        }
+        return target instanceof BaseJpaRepositoryImpl ? (BaseJpaRepositoryImpl<T, ID>) target : null;
+    }
+
+    /**
+     * Gets the implementation behind a repository for an operation only this base class provides. Spring Data runs
+     * the default methods of {@link BaseJpaRepository} in place of this class's own, so they hand over explicitly.
+     * @param repository repository or its proxy
+     * @param operation name of the operation, for the error
+     * @param <T> entity type
+     * @param <ID> ID type
+     * @return the implementation
+     * @throws UnsupportedOperationException if the repository was not created with this base class
+     */
+    static <T, ID extends Serializable> BaseJpaRepositoryImpl<T, ID> requireImplementation(Object repository,
+                                                                                          String operation) {
+        BaseJpaRepositoryImpl<T, ID> implementation = getImplementation(repository);
+        if (implementation == null) {
+            throw new UnsupportedOperationException(operation + " requires a repository created with "
+                    + "@EnableJpaRepositories(repositoryBaseClass = BaseJpaRepositoryImpl.class)");
+        }
+        return implementation;
+    }
+
+    /**
+     * Gets the upsert dialect for the database, detected from its product name
+     * @return upsert dialect
+     * @throws IllegalStateException if upserts are not supported on the database
+     */
+    protected UpsertDialect getUpsertDialect() {
+        if (upsertDialect == null) {
+            upsertDialect = UpsertDialect.forDatabase(getDatabaseName());
+        }
+        return upsertDialect;
+    }
+
+    /**
+     * Checks whether Hibernate provides the entity manager, so its own API may be used where JPA has no equivalent
+     * @return whether the provider is Hibernate
+     */
+    protected boolean isHibernate() {
+        if (hibernate == null) {
+            hibernate = usesHibernate(entityManager.getEntityManagerFactory());
+        }
+        return hibernate;
+    }
+
+    /**
+     * Checks whether Hibernate provides an entity manager factory, without loading Hibernate's classes when it is
+     * not on the class path
+     * @param entityManagerFactory entity manager factory
+     * @return whether the provider is Hibernate
+     */
+    static boolean usesHibernate(EntityManagerFactory entityManagerFactory) {
+        return HIBERNATE_PRESENT && HibernateSupport.isHibernate(entityManagerFactory);
+    }
+
+    /**
+     * Gets the product name of the database
+     * @return database product name
+     */
+    protected String getDatabaseName() {
+        if (databaseName == null) {
+            try {
+                databaseName = JdbcUtils.extractDatabaseMetaData(getJdbcTemplate().getDataSource(),
+                        "getDatabaseProductName");
+            } catch (MetaDataAccessException e) {
+                throw new IllegalStateException("Unable to read the database product name", e);
+            }
+        }
+        return databaseName;
+    }
+
+    /**
+     * Reads where the database places nulls from its JDBC metadata
+     * @return null ordering of the database
+     */
+    @Override
+    public NullOrdering getNullOrdering() {
+        if (nullOrdering == null) {
+            try {
+                nullOrdering = (NullOrdering) JdbcUtils.extractDatabaseMetaData(getJdbcTemplate().getDataSource(),
+                        metaData -> {
+                            if (metaData.nullsAreSortedAtStart()) {
+                                return NullOrdering.FIRST;
+                            } else if (metaData.nullsAreSortedAtEnd()) {
+                                return NullOrdering.LAST;
+                            }
+                            return metaData.nullsAreSortedHigh() ? NullOrdering.HIGH : NullOrdering.LOW;
+                        });
+            } catch (MetaDataAccessException e) {
+                throw new IllegalStateException("Unable to read how the database sorts nulls", e);
+            }
+        }
+        return nullOrdering;
+    }
+
+    @Override
+    protected <S extends T> TypedQuery<S> getQuery(@Nullable Specification<S> spec, Class<S> domainClass,
+                                                   Sort sort) {
+        Map<String, Object> parameterValues = new HashMap<>();
+        return QueryParameters.bind(
+                QueryParameters.collect(parameterValues, () -> super.getQuery(spec, domainClass, sort)),
+                parameterValues);
+    }
+
+    @Override
+    protected <S extends T> TypedQuery<Long> getCountQuery(@Nullable Specification<S> spec, Class<S> domainClass) {
+        Map<String, Object> parameterValues = new HashMap<>();
+        return QueryParameters.bind(
+                QueryParameters.collect(parameterValues, () -> super.getCountQuery(spec, domainClass)),
+                parameterValues);
+    }
+
+    /**
+     * Creates a query selecting the entities matching a fixed number of IDs. Single IDs, including embedded IDs,
+     * are matched with one "in" parameter while ID classes are matched attribute by attribute.
+     * @param size number of IDs the query matches
+     * @return query for the entities
+     */
+    private TypedQuery<T> createIdQuery(int size) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> query = criteriaBuilder.createQuery(getDomainClass());
+        Root<T> root = query.from(getDomainClass());
+        if (!entityInformation.hasCompositeId()) {
+            ParameterExpression<Collection<?>> idsParameter =
+                    criteriaBuilder.parameter((Class<Collection<?>>) (Class<?>) Collection.class, "ids");
+            query.select(root).where(root.get(entityInformation.getIdAttribute()).in(idsParameter));
+        } else {
+            Predicate[] idPredicates = new Predicate[size];
+            for (int i = 0; i < size; i++) {
+                List<Predicate> attributePredicates = new ArrayList<>();
+                for (String idAttribute : entityInformation.getIdAttributeNames()) {
+                    Class<?> idAttributeType = root.get(idAttribute).getJavaType();
+                    attributePredicates.add(criteriaBuilder.equal(root.get(idAttribute),
+                            criteriaBuilder.parameter(idAttributeType, getIdParameterName(i, idAttribute))));
+                }
+                idPredicates[i] = criteriaBuilder.and(attributePredicates.toArray(new Predicate[0]));
+            }
+            query.select(root).where(criteriaBuilder.or(idPredicates));
+        }
+        return entityManager.createQuery(query);
+    }
+
+    /**
+     * Binds a batch of IDs onto a query from {@link #createIdQuery(int)}, repeating the last ID to fill the padding
+     * @param query query to bind
+     * @param batch IDs to bind
+     * @param paddedSize number of IDs the query matches
+     */
+    private void bindIds(TypedQuery<T> query, List<ID> batch, int paddedSize) {
+        if (!entityInformation.hasCompositeId()) {
+            List<ID> paddedIds = new ArrayList<>(paddedSize);
+            paddedIds.addAll(batch);
+            while (paddedIds.size() < paddedSize) {
+                paddedIds.add(batch.get(batch.size() - 1));
+            }
+            query.setParameter("ids", paddedIds);
+        } else {
+            for (int i = 0; i < paddedSize; i++) {
+                ID id = batch.get(Math.min(i, batch.size() - 1));
+                for (String idAttribute : entityInformation.getIdAttributeNames()) {
+                    query.setParameter(getIdParameterName(i, idAttribute),
+                            entityInformation.getCompositeIdAttributeValue(id, idAttribute));
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of rows in the table, remembering it for a minute as it only scales the share found matching
+     * @return number of rows
+     */
+    private long getEstimatedRowCount() {
+        CachedRowCount rowCount = cachedRowCount;
+        if (rowCount == null || System.nanoTime() - rowCount.expiresAt > 0) {
+            rowCount = new CachedRowCount(this.readRowCount(), System.nanoTime() + ROW_COUNT_TIME_TO_LIVE);
+            cachedRowCount = rowCount;
+        }
+        return rowCount.count;
+    }
+
+    /**
+     * Reads the number of rows in the table from the database's statistics where it keeps them, otherwise counting
+     * @return number of rows
+     */
+    private long readRowCount() {
+        String databaseName = getDatabaseName().toLowerCase();
+        String estimateSql = null;
+        if (databaseName.contains("postgres")) {
+            estimateSql = POSTGRESQL_ROW_ESTIMATE_SQL;
+        } else if (databaseName.contains("mysql") || databaseName.contains("mariadb")) {
+            estimateSql = MYSQL_ROW_ESTIMATE_SQL;
+        } else if (databaseName.equals("h2")) {
+            estimateSql = H2_ROW_ESTIMATE_SQL;
+        }
+        if (estimateSql != null && this.isHibernate()) {
+            List<Long> estimates = getJdbcTemplate().queryForList(estimateSql, Long.class,
+                    HibernateSupport.getTableName(entityManager.getEntityManagerFactory(), getDomainClass()));
+            // tables never analyzed have no estimate
+            if (!estimates.isEmpty() && estimates.get(0) != null && estimates.get(0) > 0) {
+                return estimates.get(0);
+            }
+        }
+        return count();
+    }
+
+    /**
+     * Checks whether the entity's ID is an integer, so random points between its lowest and highest are IDs too
+     * @return true for int and long IDs
+     */
+    private boolean hasIntegerId() {
+        Class<?> idType = entityInformation.getIdType();
+        return Integer.class.equals(idType) || int.class.equals(idType) || Long.class.equals(idType)
+                || long.class.equals(idType);
+    }
+
+    /**
+     * Gets the IDs from which to start each sample window, at random points between the lowest and highest ID
+     * @return IDs from which to start, empty if the table has no rows
+     */
+    private List<Object> getSampleStarts() {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = criteriaBuilder.createQuery(Object[].class);
+        Root<T> root = query.from(getDomainClass());
+        Path<Number> idPath = root.get(entityInformation.getIdAttribute().getName());
+        query.multiselect(criteriaBuilder.min(idPath), criteriaBuilder.max(idPath));
+        Object[] range = entityManager.createQuery(query).getSingleResult();
+        if (range[0] == null) {
+            return Collections.emptyList();
+        }
+        long lowest = ((Number) range[0]).longValue();
+        long highest = ((Number) range[1]).longValue();
+        Class<?> idType = entityInformation.getIdType();
+        boolean integerId = Integer.class.equals(idType) || int.class.equals(idType);
+        List<Object> starts = new ArrayList<>(ESTIMATE_SAMPLE_WINDOWS);
+        for (int i = 0; i < ESTIMATE_SAMPLE_WINDOWS; i++) {
+            long start = highest > lowest ? ThreadLocalRandom.current().nextLong(lowest, highest) : lowest;
+            if (integerId) {
+                starts.add((int) start);
+            } else {
+                starts.add(start);
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * Gets a window of consecutive IDs in ascending order
+     * @param start ID from which to start
+     * @return IDs in the window
+     */
+    private List<Object> getSampleIds(Object start) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object> query = criteriaBuilder.createQuery(Object.class);
+        Root<T> root = query.from(getDomainClass());
+        Path<Comparable> idPath = root.get(entityInformation.getIdAttribute().getName());
+        query.select(idPath).where(criteriaBuilder.greaterThanOrEqualTo(idPath, (Comparable) start))
+                .orderBy(criteriaBuilder.asc(idPath));
+        return entityManager.createQuery(query).setMaxResults(ESTIMATE_SAMPLE_WINDOW_SIZE).getResultList();
+    }
+
+    /**
+     * Counts the entities matching the specification with IDs between two values, inclusive
+     */
+    private long countBetween(Specification<T> spec, Object lowestId, Object highestId) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<T> root = query.from(getDomainClass());
+        Path<Comparable> idPath = root.get(entityInformation.getIdAttribute().getName());
+        Predicate predicate = criteriaBuilder.between(idPath, (Comparable) lowestId, (Comparable) highestId);
+        Map<String, Object> parameterValues = new HashMap<>();
+        Predicate specPredicate = QueryParameters.collect(parameterValues,
+                () -> spec.toPredicate(root, query, criteriaBuilder));
+        if (specPredicate != null) {
+            predicate = criteriaBuilder.and(predicate, specPredicate);
+        }
+        query.select(criteriaBuilder.count(root)).where(predicate);
+        Long count = QueryParameters.bind(entityManager.createQuery(query), parameterValues).getSingleResult();
+        return count == null ? 0 : count;
+    }
+
+    private static String getIdParameterName(int index, String idAttribute) {
+        return "id_" + index + "_" + idAttribute;
+    }
+
+    private static int getPaddedBatchSize(int size, int batchSize) {
+        int paddedSize = Integer.highestOneBit(size);
+        if (paddedSize < size) {
+            paddedSize <<= 1;
+        }
+        return Math.min(paddedSize, batchSize);
+    }
+
+    private UpsertResult executeUpsertBatch(EntityTableMapping<T> mapping, String upsertSql,
+                                            Map<List<Object>, Object[]> batch) {
+        List<Object> idValues = new ArrayList<>();
+        for (List<Object> rowIdValues : batch.keySet()) {
+            idValues.addAll(rowIdValues);
+        }
+        Long existing = getJdbcTemplate().queryForObject(
+                getUpsertDialect().getExistingCountSql(mapping, batch.size()), idValues.toArray(), Long.class);
+        long updated = existing == null ? 0 : existing;
+        getJdbcTemplate().batchUpdate(upsertSql, new ArrayList<>(batch.values()));
+        return new UpsertResult(batch.size() - updated, updated);
+    }
+
+    private EntityTableMapping<T> getTableMapping() {
+        if (tableMapping == null) {
+            tableMapping = new EntityTableMapping<>(getDomainClass(), entityManager.getEntityManagerFactory());
+        }
+        return tableMapping;
+    }
+
+    /**
+     * Gets a JDBC template on the entity manager factory's data source. Within a JPA transaction it shares the
+     * transaction's connection.
+     * @return JDBC template
+     */
+    private JdbcTemplate getJdbcTemplate() {
+        if (jdbcTemplate == null) {
+            EntityManagerFactory entityManagerFactory = entityManager.getEntityManagerFactory();
+            Assert.state(entityManagerFactory instanceof EntityManagerFactoryInfo
+                            && ((EntityManagerFactoryInfo) entityManagerFactory).getDataSource() != null,
+                    "JDBC access requires an entity manager factory exposing its data source");
+            jdbcTemplate = new JdbcTemplate(((EntityManagerFactoryInfo) entityManagerFactory).getDataSource());
+        }
+        return jdbcTemplate;
+    }
+
+    private static class CachedRowCount {
+        private final long count;
+        private final long expiresAt;
+
+        private CachedRowCount(long count, long expiresAt) {
+            this.count = count;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
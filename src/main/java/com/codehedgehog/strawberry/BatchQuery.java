@@ -0,0 +1,71 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.util.Assert;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Named queries, possibly against services for different entities, to be run together by a
+ * {@link BatchQueryExecutor}.
+ */
+public class BatchQuery {
+    private final Map<String, Supplier<?>> queries = new LinkedHashMap<>();
+
+    /**
+     * Adds a query for multiple resources, filtered, sorted and paged by the parameters as for a GET request
+     * @param name name under which to return the result
+     * @param service service for the resources
+     * @param parameters query string parameters
+     * @return this batch
+     */
+    public BatchQuery list(String name, RestfulService<?, ?, ?> service, Map<String, String[]> parameters) {
+        Assert.notNull(service, "Service must not be null");
+        Assert.notNull(parameters, "Parameters must not be null");
+        return this.add(name, () -> service.getObjects(parameters));
+    }
+
+    /**
+     * Adds a query for a single resource by its ID
+     * @param name name under which to return the result
+     * @param service service for the resource
+     * @param id ID of the resource
+     * @param <ID> type of the ID
+     * @return this batch
+     */
+    public <ID extends Serializable> BatchQuery get(String name, RestfulService<?, ?, ID> service, ID id) {
+        Assert.notNull(service, "Service must not be null");
+        Assert.notNull(id, "ID must not be null");
+        return this.add(name, () -> service.getObject(id));
+    }
+
+    /**
+     * Adds a query for several resources by their IDs
+     * @param name name under which to return the result
+     * @param service service for the resources
+     * @param ids IDs of the resources
+     * @param <ID> type of the IDs
+     * @return this batch
+     */
+    public <ID extends Serializable> BatchQuery getMultiple(String name, RestfulService<?, ?, ID> service,
+                                                            Collection<ID> ids) {
+        Assert.notNull(service, "Service must not be null");
+        Assert.notNull(ids, "IDs must not be null");
+        return this.add(name, () -> service.getObjects(ids));
+    }
+
+    /**
+     * @return queries keyed by name, in the order they were added
+     */
+    public Map<String, Supplier<?>> getQueries() {
+        return Collections.unmodifiableMap(queries);
+    }
+
+    private BatchQuery add(String name, Supplier<?> query) {
+        Assert.hasText(name, "Name must not be empty");
+        Assert.isTrue(!queries.containsKey(name), "Duplicate query name " + name);
+        queries.put(name, query);
+        return this;
+    }
+}
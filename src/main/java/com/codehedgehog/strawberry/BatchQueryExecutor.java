@@ -0,0 +1,107 @@
+package com.codehedgehog.strawberry;
+
+import com.codehedgehog.strawberry.exceptions.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs the queries of a {@link BatchQuery} so that a screen needing several resources can fetch them in one round
+ * trip. By default the queries run one after another in a single read-only transaction, sharing one connection;
+ * given an executor they instead run in parallel, each in its own read-only transaction and connection. A query
+ * that fails is reported under its name without failing the others. The batch never joins a transaction already in
+ * progress on the calling thread, which is suspended meanwhile, so a failing query cannot mark it rollback-only.
+ */
+public class BatchQueryExecutor {
+    private final Logger log = LoggerFactory.getLogger(BatchQueryExecutor.class);
+
+    private final TransactionTemplate transactionTemplate;
+    private final Executor executor;
+
+    public BatchQueryExecutor(PlatformTransactionManager transactionManager) {
+        this(transactionManager, null);
+    }
+
+    public BatchQueryExecutor(PlatformTransactionManager transactionManager, Executor executor) {
+        Assert.notNull(transactionManager, "Transaction manager must not be null");
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.executor = executor;
+    }
+
+    /**
+     * Runs every query in the batch
+     * @param batchQuery queries to run
+     * @return results and errors keyed by query name
+     */
+    public BatchQueryResult execute(BatchQuery batchQuery) {
+        Assert.notNull(batchQuery, "Batch query must not be null");
+        Map<String, Object> results = new LinkedHashMap<>();
+        Map<String, RuntimeException> errors = new LinkedHashMap<>();
+        if (executor != null) {
+            this.executeInParallel(batchQuery, results, errors);
+        } else {
+            this.executeInSequence(batchQuery, results, errors);
+        }
+        return new BatchQueryResult(results, errors);
+    }
+
+    /**
+     * Runs the queries one after another in a shared transaction. Bad requests are rejected before reaching the
+     * database, so the transaction carries on past them; any other failure may have left the transaction unusable,
+     * so it is rolled back and the remaining queries continue in a new one.
+     */
+    private void executeInSequence(BatchQuery batchQuery, Map<String, Object> results,
+                                   Map<String, RuntimeException> errors) {
+        List<Map.Entry<String, Supplier<?>>> queries = new ArrayList<>(batchQuery.getQueries().entrySet());
+        int next = 0;
+        while (next < queries.size()) {
+            int start = next;
+            next = transactionTemplate.execute(status -> {
+                for (int i = start; i < queries.size(); i++) {
+                    Map.Entry<String, Supplier<?>> query = queries.get(i);
+                    try {
+                        results.put(query.getKey(), query.getValue().get());
+                    } catch (BadRequestException e) {
+                        errors.put(query.getKey(), e);
+                    } catch (RuntimeException e) {
+                        log.debug("Batch query {} failed - continuing in a new transaction", query.getKey(), e);
+                        errors.put(query.getKey(), e);
+                        status.setRollbackOnly();
+                        return i + 1;
+                    }
+                }
+                return queries.size();
+            });
+        }
+    }
+
+    /**
+     * Runs the queries in parallel, each in its own transaction, waiting for all to finish
+     */
+    private void executeInParallel(BatchQuery batchQuery, Map<String, Object> results,
+                                   Map<String, RuntimeException> errors) {
+        Map<String, CompletableFuture<Object>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Supplier<?>> query : batchQuery.getQueries().entrySet()) {
+            futures.put(query.getKey(), CompletableFuture.supplyAsync(
+                    () -> transactionTemplate.execute(status -> query.getValue().get()), executor));
+        }
+        for (Map.Entry<String, CompletableFuture<Object>> future : futures.entrySet()) {
+            try {
+                results.put(future.getKey(), future.getValue().join());
+            } catch (RuntimeException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                errors.put(future.getKey(), cause instanceof RuntimeException ? (RuntimeException) cause : e);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.codehedgehog.strawberry;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Results and errors of the queries in a {@link BatchQuery}, keyed by query name.
+ */
+public class BatchQueryResult {
+    private final Map<String, Object> results;
+    private final Map<String, RuntimeException> errors;
+
+    public BatchQueryResult(Map<String, Object> results, Map<String, RuntimeException> errors) {
+        this.results = Collections.unmodifiableMap(results);
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * @return results of the queries that succeeded keyed by name, in the order the queries were added
+     */
+    public Map<String, Object> getResults() {
+        return results;
+    }
+
+    /**
+     * @return errors of the queries that failed keyed by name, in the order the queries were added
+     */
+    public Map<String, RuntimeException> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Gets the result of a query
+     * @param name name of the query
+     * @param <T> type of the result
+     * @return result of the query, or null if it failed or found nothing
+     */
+    public <T> T getResult(String name) {
+        return (T) results.get(name);
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+}
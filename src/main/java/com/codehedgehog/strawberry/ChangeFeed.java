@@ -0,0 +1,63 @@
+package com.codehedgehog.strawberry;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Objects changed and IDs deleted since a change token, with the token from which to continue.
+ */
+public class ChangeFeed<T, ID> {
+    private final List<T> changedObjects;
+    private final List<ID> deletedIds;
+    private final String nextToken;
+    private final boolean resyncRequired;
+    private final boolean moreChanges;
+
+    public ChangeFeed(List<T> changedObjects, List<ID> deletedIds, String nextToken, boolean resyncRequired) {
+        this(changedObjects, deletedIds, nextToken, resyncRequired, false);
+    }
+
+    public ChangeFeed(List<T> changedObjects, List<ID> deletedIds, String nextToken, boolean resyncRequired,
+                      boolean moreChanges) {
+        this.changedObjects = Collections.unmodifiableList(changedObjects);
+        this.deletedIds = Collections.unmodifiableList(deletedIds);
+        this.nextToken = nextToken;
+        this.resyncRequired = resyncRequired;
+        this.moreChanges = moreChanges;
+    }
+
+    /**
+     * @return objects created or modified since the token, oldest change first
+     */
+    public List<T> getChangedObjects() {
+        return changedObjects;
+    }
+
+    /**
+     * @return IDs of objects deleted since the token
+     */
+    public List<ID> getDeletedIds() {
+        return deletedIds;
+    }
+
+    /**
+     * @return token to pass as "changedSince" to get the changes after this feed
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    /**
+     * @return true if deletions since the token are no longer all known and the consumer should re-read everything
+     */
+    public boolean isResyncRequired() {
+        return resyncRequired;
+    }
+
+    /**
+     * @return true if the feed was cut short by its limit and the next token continues straight after it
+     */
+    public boolean hasMoreChanges() {
+        return moreChanges;
+    }
+}
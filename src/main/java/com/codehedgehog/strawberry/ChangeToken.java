@@ -0,0 +1,107 @@
+package com.codehedgehog.strawberry;
+
+import com.codehedgehog.strawberry.exceptions.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Opaque "changedSince" tokens holding a change time in milliseconds since the epoch, and the conversions between
+ * that time and the values of supported change tracking fields. A token continuing a limited feed also holds how
+ * many objects changed at exactly that time were already returned.
+ */
+public class ChangeToken {
+    private static final String VERSION_PREFIX = "1:";
+    private static final String CONTINUATION_PREFIX = "2:";
+
+    public static String encode(long changedAt) {
+        return encode(VERSION_PREFIX + changedAt);
+    }
+
+    /**
+     * Encodes a token continuing after objects already returned
+     * @param changedAt change time from which to continue
+     * @param skip number of objects changed at exactly that time to skip, in change feed order
+     * @return token
+     */
+    public static String encode(long changedAt, long skip) {
+        return skip == 0 ? encode(changedAt) : encode(CONTINUATION_PREFIX + changedAt + ":" + skip);
+    }
+
+    public static long decode(String token) {
+        return parse(token)[0];
+    }
+
+    /**
+     * Decodes the number of objects changed at exactly the token's time to skip
+     * @param token token
+     * @return number of objects to skip, zero unless the token continues a limited feed
+     */
+    public static long decodeSkip(String token) {
+        return parse(token)[1];
+    }
+
+    private static String encode(String decoded) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] parse(String token) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+            if (decoded.startsWith(VERSION_PREFIX)) {
+                return new long[]{Long.parseLong(decoded.substring(VERSION_PREFIX.length())), 0};
+            } else if (decoded.startsWith(CONTINUATION_PREFIX)) {
+                String[] parts = decoded.substring(CONTINUATION_PREFIX.length()).split(":");
+                long skip = parts.length == 2 ? Long.parseLong(parts[1]) : -1;
+                if (skip >= 0) {
+                    return new long[]{Long.parseLong(parts[0]), skip};
+                }
+            }
+            throw new BadRequestException("Invalid changedSince token");
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid changedSince token");
+        }
+    }
+
+    public static boolean isSupportedType(Class<?> type) {
+        return Date.class.isAssignableFrom(type) || Instant.class.equals(type)
+                || LocalDateTime.class.equals(type) || Long.class.equals(type) || long.class.equals(type);
+    }
+
+    /**
+     * Converts the value of a change tracking field to milliseconds since the epoch
+     * @param value field value
+     * @return milliseconds since the epoch
+     */
+    public static long toMillis(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else if (value instanceof Instant) {
+            return ((Instant) value).toEpochMilli();
+        } else if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        return ((Number) value).longValue();
+    }
+
+    /**
+     * Converts milliseconds since the epoch to a value comparable with a change tracking field
+     * @param type field type
+     * @param millis milliseconds since the epoch
+     * @return value of the field's type
+     */
+    public static Object fromMillis(Class<?> type, long millis) {
+        if (Date.class.isAssignableFrom(type)) {
+            return new Date(millis);
+        } else if (Instant.class.equals(type)) {
+            return Instant.ofEpochMilli(millis);
+        } else if (LocalDateTime.class.equals(type)) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        }
+        return millis;
+    }
+}
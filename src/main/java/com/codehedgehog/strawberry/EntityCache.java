@@ -0,0 +1,42 @@
+package com.codehedgehog.strawberry;
+
+/**
+ * Read-through cache of entities by ID placed in front of the repository by {@link RestfulService}. Entries must
+ * be held as copies detached from any persistence context. To keep a load racing with a change from caching the
+ * value the change replaced, loads read the key's generation first and pass it when caching the loaded entity.
+ */
+public interface EntityCache<ID, T> {
+
+    /**
+     * @param id ID of the entity
+     * @return copy of the cached entity, or null if not cached
+     */
+    T get(ID id);
+
+    /**
+     * Gets the generation of a key, which changes whenever the key is evicted. Different keys may share
+     * generations, so eviction of one can make a load of another go uncached, but never the reverse.
+     * @param id ID of the entity
+     * @return current generation of the key
+     */
+    long getGeneration(ID id);
+
+    /**
+     * Caches a copy of an entity loaded after reading the key's generation, unless the key has been evicted since
+     * @param id ID of the entity
+     * @param entity entity to cache a copy of
+     * @param generation generation of the key read before the entity was loaded
+     * @return another copy of the entity for the caller, as {@link #get(Object)} would return, or null if the
+     * entity is null
+     */
+    T put(ID id, T entity, long generation);
+
+    /**
+     * @param id ID of the entity to remove
+     */
+    void evict(ID id);
+
+    void evictAll();
+
+    EntityCacheStatistics getStatistics();
+}
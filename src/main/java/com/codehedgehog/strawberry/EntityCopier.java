@@ -0,0 +1,137 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ReflectionUtils;
+
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.MappedSuperclass;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceUtil;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Copies entities into object graphs detached from any persistence context, for caches that hand out entities
+ * outside the session which loaded them. Entities and embeddables reachable from the entity are copied field by
+ * field, collections and maps into plain JDK ones, and dates and arrays cloned, keeping shared references shared.
+ * Associations and collections which were never loaded are left null rather than holding proxies that could only
+ * be initialized in their session, and initialized proxies are replaced by copies of their targets. Any other
+ * values are assumed immutable and shared.
+ */
+final class EntityCopier {
+    private static final PersistenceUtil PERSISTENCE_UTIL = Persistence.getPersistenceUtil();
+
+    private EntityCopier() {
+    }
+
+    /**
+     * Copies an entity and everything reachable from it that a caller could modify in place
+     * @param entity entity to copy
+     * @param <T> entity type
+     * @return detached copy of the entity
+     */
+    static <T> T copy(T entity) {
+        return (T) copy(entity, new IdentityHashMap<>());
+    }
+
+    private static Object copy(Object value, Map<Object, Object> copies) {
+        if (value == null || !isLoaded(value)) {
+            return null;
+        }
+        Object target = BaseJpaRepositoryImpl.HIBERNATE_PRESENT ? HibernateSupport.unproxy(value) : value;
+        Object copy = copies.get(target);
+        if (copy != null) {
+            return copy;
+        }
+        if (target instanceof Date) {
+            copy = ((Date) target).clone();
+        } else if (target.getClass().isArray()) {
+            copy = copyArray(target, copies);
+        } else if (target instanceof Collection) {
+            copy = copyCollection((Collection<?>) target, copies);
+        } else if (target instanceof Map) {
+            copy = copyMap((Map<?, ?>) target, copies);
+        } else if (isPersistentClass(target.getClass())) {
+            copy = copyFields(target, copies);
+        } else {
+            return target;
+        }
+        copies.put(target, copy);
+        return copy;
+    }
+
+    private static Object copyFields(Object target, Map<Object, Object> copies) {
+        Object copy = BeanUtils.instantiateClass(target.getClass());
+        // registered before the fields are copied, so references back to the object reach the copy
+        copies.put(target, copy);
+        for (Class<?> clazz = target.getClass(); clazz != null && clazz != Object.class;
+             clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+                    ReflectionUtils.makeAccessible(field);
+                    ReflectionUtils.setField(field, copy, copy(ReflectionUtils.getField(field, target), copies));
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static Object copyArray(Object target, Map<Object, Object> copies) {
+        int length = Array.getLength(target);
+        Object copy = Array.newInstance(target.getClass().getComponentType(), length);
+        copies.put(target, copy);
+        if (target.getClass().getComponentType().isPrimitive()) {
+            System.arraycopy(target, 0, copy, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                Array.set(copy, i, copy(Array.get(target, i), copies));
+            }
+        }
+        return copy;
+    }
+
+    private static Collection<Object> copyCollection(Collection<?> target, Map<Object, Object> copies) {
+        Collection<Object> copy;
+        if (target instanceof SortedSet) {
+            copy = new TreeSet<>((Comparator<Object>) ((SortedSet<?>) target).comparator());
+        } else if (target instanceof Set) {
+            copy = new LinkedHashSet<>(target.size() * 4 / 3 + 1);
+        } else {
+            copy = new ArrayList<>(target.size());
+        }
+        copies.put(target, copy);
+        for (Object element : target) {
+            copy.add(copy(element, copies));
+        }
+        return copy;
+    }
+
+    private static Map<Object, Object> copyMap(Map<?, ?> target, Map<Object, Object> copies) {
+        Map<Object, Object> copy = target instanceof SortedMap
+                ? new TreeMap<>((Comparator<Object>) ((SortedMap<?, ?>) target).comparator())
+                : new LinkedHashMap<>(target.size() * 4 / 3 + 1);
+        copies.put(target, copy);
+        for (Map.Entry<?, ?> entry : target.entrySet()) {
+            copy.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+        }
+        return copy;
+    }
+
+    private static boolean isLoaded(Object value) {
+        return BaseJpaRepositoryImpl.HIBERNATE_PRESENT ? HibernateSupport.isInitialized(value)
+                : PERSISTENCE_UTIL.isLoaded(value);
+    }
+
+    private static boolean isPersistentClass(Class<?> clazz) {
+        for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+            if (current.isAnnotationPresent(Entity.class) || current.isAnnotationPresent(Embeddable.class)
+                    || current.isAnnotationPresent(MappedSuperclass.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,343 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Maps an entity onto the table and columns it is stored in. The names are those Hibernate's entity persister
+ * writes, so they follow whichever naming strategy is configured; the values are read from the entity's fields.
+ * Mappings that cannot be written as a single row of a single table, such as entity inheritance or secondary
+ * tables, are rejected when the mapping is created.
+ */
+public class EntityTableMapping<T> {
+    private final String tableName;
+    private final List<ColumnMapping> columns;
+    private final List<ColumnMapping> idColumns;
+    private final ColumnMapping versionColumn;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+
+    /**
+     * Creates the mapping of an entity managed by an entity manager factory
+     * @param entityClass entity class
+     * @param entityManagerFactory Hibernate entity manager factory managing the entity
+     * @throws IllegalStateException if the factory is not Hibernate's or the mapping is not supported
+     */
+    public EntityTableMapping(Class<T> entityClass, EntityManagerFactory entityManagerFactory) {
+        Assert.notNull(entityClass, "Entity class must not be null");
+        Assert.notNull(entityManagerFactory, "Entity manager factory must not be null");
+        Assert.state(BaseJpaRepositoryImpl.usesHibernate(entityManagerFactory),
+                "Upserts require Hibernate as the JPA provider");
+        checkSupportedMapping(entityClass);
+        this.persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        this.tableName = HibernateSupport.getTableName(entityManagerFactory, entityClass);
+        List<ColumnMapping> allColumns = new ArrayList<>();
+        List<ColumnMapping> keyColumns = new ArrayList<>();
+        addColumns(entityClass, Collections.emptyList(), Collections.emptyMap(), false, allColumns, keyColumns);
+        for (ColumnMapping columnMapping : allColumns) {
+            String[] columnNames = HibernateSupport.getColumnNames(entityManagerFactory, entityClass,
+                    columnMapping.getAttributePath());
+            Assert.state(columnNames.length == 1,
+                    "Upserts do not support attributes spread over several columns on " + columnMapping.getField());
+            columnMapping.name = columnNames[0];
+        }
+        Assert.notEmpty(keyColumns, "No ID columns found on " + entityClass.getName());
+        this.columns = Collections.unmodifiableList(allColumns);
+        this.idColumns = Collections.unmodifiableList(keyColumns);
+        ColumnMapping foundVersionColumn = null;
+        for (ColumnMapping columnMapping : allColumns) {
+            if (columnMapping.version) {
+                foundVersionColumn = columnMapping;
+            }
+        }
+        this.versionColumn = foundVersionColumn;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public List<String> getColumnNames() {
+        return getNames(columns);
+    }
+
+    public List<String> getIdColumnNames() {
+        return getNames(idColumns);
+    }
+
+    /**
+     * Gets the names of the columns overwritten when a row already exists, leaving out the ID columns, the version
+     * column and columns that are not updatable
+     * @return names of the columns to update
+     */
+    public List<String> getUpdatedColumnNames() {
+        List<String> names = new ArrayList<>(columns.size());
+        for (ColumnMapping columnMapping : columns) {
+            if (columnMapping.updatable && !columnMapping.version && !idColumns.contains(columnMapping)) {
+                names.add(columnMapping.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Gets the name of the version column, which is incremented rather than overwritten when a row already exists
+     * @return name of the version column, or null if the entity is not versioned
+     */
+    public String getVersionColumnName() {
+        return versionColumn == null ? null : versionColumn.name;
+    }
+
+    /**
+     * Gets the value of every column for the entity, in the order of {@link #getColumnNames()}
+     * @param entity entity from which to read
+     * @return column values
+     */
+    public Object[] getColumnValues(T entity) {
+        return getValues(columns, entity);
+    }
+
+    /**
+     * Gets the value of every ID column for the entity, in the order of {@link #getIdColumnNames()}
+     * @param entity entity from which to read
+     * @return ID column values
+     */
+    public Object[] getIdValues(T entity) {
+        return getValues(idColumns, entity);
+    }
+
+    /**
+     * Rejects mappings that spread an entity over several tables or rows, or that are read through properties
+     * rather than fields
+     * @param entityClass entity class to check
+     */
+    private static void checkSupportedMapping(Class<?> entityClass) {
+        for (Class<?> clazz = entityClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            Assert.state(clazz == entityClass || !clazz.isAnnotationPresent(Entity.class),
+                    "Upserts do not support entity inheritance on " + entityClass.getName());
+            Assert.state(!clazz.isAnnotationPresent(Inheritance.class),
+                    "Upserts do not support entity inheritance on " + entityClass.getName());
+            Assert.state(!clazz.isAnnotationPresent(SecondaryTable.class)
+                            && !clazz.isAnnotationPresent(SecondaryTables.class),
+                    "Upserts do not support secondary tables on " + entityClass.getName());
+            Access access = clazz.getAnnotation(Access.class);
+            Assert.state(access == null || access.value() == AccessType.FIELD,
+                    "Upserts only support field access on " + entityClass.getName());
+            for (Method method : clazz.getDeclaredMethods()) {
+                Assert.state(!method.isAnnotationPresent(Id.class) && !method.isAnnotationPresent(EmbeddedId.class),
+                        "Upserts only support field access on " + entityClass.getName());
+            }
+        }
+    }
+
+    /**
+     * Gets the column overrides declared on a field, keyed by attribute path relative to the field's type
+     * @param field embedded field
+     * @return column overrides
+     */
+    private static Map<String, Column> getAttributeOverrides(Field field) {
+        Assert.state(!field.isAnnotationPresent(AssociationOverride.class)
+                        && !field.isAnnotationPresent(AssociationOverrides.class),
+                "Upserts do not support association overrides on " + field);
+        Map<String, Column> attributeOverrides = new HashMap<>();
+        List<AttributeOverride> overrides = new ArrayList<>();
+        if (field.isAnnotationPresent(AttributeOverrides.class)) {
+            overrides.addAll(Arrays.asList(field.getAnnotation(AttributeOverrides.class).value()));
+        }
+        if (field.isAnnotationPresent(AttributeOverride.class)) {
+            overrides.add(field.getAnnotation(AttributeOverride.class));
+        }
+        for (AttributeOverride override : overrides) {
+            attributeOverrides.put(override.name(), override.column());
+        }
+        return attributeOverrides;
+    }
+
+    /**
+     * Adds the columns of each persistent field of a class, descending into embedded fields
+     * @param clazz entity or embeddable class
+     * @param parentFields path of fields from the entity to the class
+     * @param overrides column overrides declared by enclosing fields, keyed by attribute path relative to the class
+     * @param idFields whether the class is an embedded ID
+     * @param allColumns list to which to add every column
+     * @param keyColumns list to which to add the ID columns
+     */
+    private void addColumns(Class<?> clazz, List<Field> parentFields, Map<String, Column> overrides, boolean idFields,
+                            List<ColumnMapping> allColumns, List<ColumnMapping> keyColumns) {
+        for (Field field : getPersistentFields(clazz)) {
+            List<Field> fieldPath = new ArrayList<>(parentFields);
+            fieldPath.add(field);
+            boolean idField = idFields || field.isAnnotationPresent(Id.class)
+                    || field.isAnnotationPresent(EmbeddedId.class);
+            ColumnMapping columnMapping = null;
+            if (field.isAnnotationPresent(EmbeddedId.class) || field.isAnnotationPresent(Embedded.class)
+                    || field.getType().isAnnotationPresent(Embeddable.class)) {
+                // overrides declared further out take precedence over those on the field itself
+                Map<String, Column> fieldOverrides = getAttributeOverrides(field);
+                String prefix = field.getName() + ".";
+                for (Map.Entry<String, Column> override : overrides.entrySet()) {
+                    if (override.getKey().startsWith(prefix)) {
+                        fieldOverrides.put(override.getKey().substring(prefix.length()), override.getValue());
+                    }
+                }
+                addColumns(field.getType(), fieldPath, fieldOverrides, idField, allColumns, keyColumns);
+            } else if (field.isAnnotationPresent(ManyToOne.class) || (field.isAnnotationPresent(OneToOne.class)
+                    && StringUtils.isEmpty(field.getAnnotation(OneToOne.class).mappedBy()))) {
+                Assert.state(!field.isAnnotationPresent(JoinColumns.class),
+                        "Upserts do not support composite join columns on " + field);
+                JoinColumn joinColumn = field.getAnnotation(JoinColumn.class);
+                if (joinColumn == null || joinColumn.insertable()) {
+                    columnMapping = new ColumnMapping(fieldPath, joinColumn == null || joinColumn.updatable(),
+                            false, false, true, null);
+                }
+            } else if (!field.isAnnotationPresent(OneToOne.class) && !field.isAnnotationPresent(OneToMany.class)
+                    && !field.isAnnotationPresent(ManyToMany.class)
+                    && !field.isAnnotationPresent(ElementCollection.class)) {
+                Column column = overrides.containsKey(field.getName())
+                        ? overrides.get(field.getName()) : field.getAnnotation(Column.class);
+                boolean version = field.isAnnotationPresent(Version.class);
+                boolean lastModified = field.isAnnotationPresent(LastModifiedDate.class);
+                Assert.state(!lastModified || ChangeToken.isSupportedType(field.getType()),
+                        "Upserts do not support the last modified date type of " + field);
+                Assert.state(!version || Number.class.isAssignableFrom(
+                        ClassUtils.resolvePrimitiveIfNecessary(field.getType())),
+                        "Upserts only support numeric versions on " + field);
+                if (column == null || column.insertable()) {
+                    columnMapping = new ColumnMapping(fieldPath, column == null || column.updatable(),
+                            version, lastModified, false, getConverter(field));
+                }
+            }
+            if (columnMapping != null) {
+                allColumns.add(columnMapping);
+                if (idField) {
+                    keyColumns.add(columnMapping);
+                }
+            }
+        }
+    }
+
+    private static List<Field> getPersistentFields(Class<?> clazz) {
+        List<Field> fields = new ArrayList<>();
+        Class<?> superclass = clazz.getSuperclass();
+        if (superclass != null && superclass.isAnnotationPresent(MappedSuperclass.class)) {
+            fields.addAll(getPersistentFields(superclass));
+        }
+        for (Field field : clazz.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())
+                    && !field.isAnnotationPresent(Transient.class) && !field.isSynthetic()) {
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static AttributeConverter<Object, Object> getConverter(Field field) {
+        Convert convert = field.getAnnotation(Convert.class);
+        if (convert != null && convert.converter() != void.class && !convert.disableConversion()) {
+            return (AttributeConverter<Object, Object>) BeanUtils.instantiateClass(convert.converter());
+        }
+        return null;
+    }
+
+    private static List<String> getNames(List<ColumnMapping> columnMappings) {
+        List<String> names = new ArrayList<>(columnMappings.size());
+        for (ColumnMapping columnMapping : columnMappings) {
+            names.add(columnMapping.name);
+        }
+        return names;
+    }
+
+    private Object[] getValues(List<ColumnMapping> columnMappings, T entity) {
+        Object[] values = new Object[columnMappings.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getValue(columnMappings.get(i), entity);
+        }
+        return values;
+    }
+
+    private Object getValue(ColumnMapping columnMapping, T entity) {
+        if (columnMapping.lastModified) {
+            // every row written is modified now, whatever the entity holds, so change feeds see it
+            return getLastModifiedValue(columnMapping.getField().getType(), System.currentTimeMillis());
+        }
+        Object value = entity;
+        for (Field field : columnMapping.fieldPath) {
+            if (value == null) {
+                return null;
+            }
+            value = ReflectionUtils.getField(field, value);
+        }
+        if (value == null) {
+            // new rows start at the first version, as they would when persisted
+            return columnMapping.version ? 0 : null;
+        } else if (columnMapping.reference) {
+            return persistenceUnitUtil.getIdentifier(value);
+        } else if (columnMapping.converter != null) {
+            return columnMapping.converter.convertToDatabaseColumn(value);
+        } else if (value instanceof Enum) {
+            Enumerated enumerated = columnMapping.getField().getAnnotation(Enumerated.class);
+            return enumerated != null && enumerated.value() == EnumType.STRING
+                    ? ((Enum<?>) value).name() : ((Enum<?>) value).ordinal();
+        }
+        return value;
+    }
+
+    /**
+     * Converts a time to the value to write to a last modified date column, as a timestamp for any date type as
+     * Hibernate writes them, or as a number for a numeric field
+     * @param type type of the last modified date field
+     * @param millis time in milliseconds since the epoch
+     * @return value to write
+     */
+    private static Object getLastModifiedValue(Class<?> type, long millis) {
+        if (Date.class.isAssignableFrom(type) || Instant.class.equals(type) || LocalDateTime.class.equals(type)) {
+            return new Timestamp(millis);
+        }
+        return millis;
+    }
+
+    private static class ColumnMapping {
+        private String name;
+        private final List<Field> fieldPath;
+        private final boolean updatable;
+        private final boolean version;
+        private final boolean lastModified;
+        private final boolean reference;
+        private final AttributeConverter<Object, Object> converter;
+
+        private ColumnMapping(List<Field> fieldPath, boolean updatable, boolean version, boolean lastModified,
+                              boolean reference, AttributeConverter<Object, Object> converter) {
+            this.fieldPath = fieldPath;
+            this.updatable = updatable;
+            this.version = version;
+            this.lastModified = lastModified;
+            this.reference = reference;
+            this.converter = converter;
+        }
+
+        private Field getField() {
+            return fieldPath.get(fieldPath.size() - 1);
+        }
+
+        private String getAttributePath() {
+            StringJoiner attributePath = new StringJoiner(".");
+            for (Field field : fieldPath) {
+                attributePath.add(field.getName());
+            }
+            return attributePath.toString();
+        }
+    }
+}
@@ -4,11 +4,14 @@ import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Jon on 11/4/2019.
  */
 public class EntityTraversalUtility {
+    private static final Map<Class<?>, Field[]> DECLARED_FIELDS = new ConcurrentHashMap<>();
 
     public static boolean isFieldOnParameterizedSubEntity(Class clazz, String fieldName) {
         boolean containsParameterizedType = false;
@@ -76,4 +79,52 @@ public class EntityTraversalUtility {
     public static  String rejoinFieldsWithoutLastIndex(String[] fields) {
         return rejoinFieldsFromSecondIndex(Arrays.copyOfRange(fields, 0, fields.length - 1));
     }
+
+    /**
+     * Finds the deepest field along a dot-notation path held within part of a larger string, without splitting or
+     * copying the string. Collections are followed through to their element type.
+     * @param clazz class from which the path starts
+     * @param path string holding the path
+     * @param start index of the first character of the path
+     * @param end index after the last character of the path
+     * @return deepest field on the path, or null if any field along it does not exist
+     */
+    public static Field getDeepestFieldOnPath(Class<?> clazz, String path, int start, int end) {
+        Class<?> currentClass = clazz;
+        Field field = null;
+        int segmentStart = start;
+        while (segmentStart <= end) {
+            int segmentEnd = path.indexOf('.', segmentStart);
+            if (segmentEnd < 0 || segmentEnd > end) {
+                segmentEnd = end;
+            }
+            field = currentClass == null ? null : getDeclaredField(currentClass, path, segmentStart, segmentEnd);
+            if (field == null) {
+                return null;
+            }
+            currentClass = getElementType(field);
+            segmentStart = segmentEnd + 1;
+        }
+        return field;
+    }
+
+    private static Field getDeclaredField(Class<?> clazz, String path, int start, int end) {
+        int length = end - start;
+        for (Field field : DECLARED_FIELDS.computeIfAbsent(clazz, Class::getDeclaredFields)) {
+            String name = field.getName();
+            if (name.length() == length && path.regionMatches(start, name, 0, length)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static Class<?> getElementType(Field field) {
+        if (field.getGenericType() instanceof ParameterizedType) {
+            Type[] typeArguments = ((ParameterizedType) field.getGenericType()).getActualTypeArguments();
+            Type elementType = typeArguments[typeArguments.length - 1];
+            return elementType instanceof Class ? (Class<?>) elementType : null;
+        }
+        return field.getType();
+    }
 }
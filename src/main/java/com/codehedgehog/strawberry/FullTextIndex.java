@@ -0,0 +1,73 @@
+package com.codehedgehog.strawberry;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Index of the {@link Searchable} fields of an entity, kept alongside the database by {@link RestfulService} and
+ * used to resolve text filters to the IDs of matching entities. Only changes made through the service are seen by
+ * the index; after changes made any other way it must be rebuilt.
+ */
+public interface FullTextIndex<T, ID> {
+
+    /**
+     * @return name of the entity's ID attribute, against which the IDs found are matched
+     */
+    String getIdAttribute();
+
+    /**
+     * @param field name of the entity field
+     * @return true if the field is held in the index
+     */
+    boolean isIndexed(String field);
+
+    /**
+     * Adds an entity to the index, replacing any earlier version of it
+     * @param entity entity to index
+     */
+    void index(T entity);
+
+    /**
+     * @param id ID of the entity to remove from the index
+     */
+    void remove(ID id);
+
+    /**
+     * Replaces the whole content of the index
+     * @param entities every entity
+     */
+    void rebuild(Iterable<? extends T> entities);
+
+    /**
+     * Finds the entities whose field matches a value, ignoring case
+     * @param field name of an indexed field
+     * @param operation one of LIKE, STARTS or ENDS
+     * @param value value to match, without wildcards
+     * @return IDs of the matching entities
+     */
+    Set<ID> find(String field, SearchOperation operation, String value);
+
+    /**
+     * Finds the entities whose indexed fields best match the text, ignoring case
+     * @param text text to search for
+     * @param maxResults maximum number of IDs to return
+     * @return IDs of the matching entities, most relevant first
+     */
+    List<ID> search(String text, int maxResults);
+
+    /**
+     * Gets the time up to which the index is known to hold every change made through the service, so a service can
+     * tell whether an index loaded from storage must be rebuilt
+     * @return time in milliseconds since the epoch, or -1 if unknown, in which case the index is always rebuilt
+     */
+    default long getCompleteUpTo() {
+        return -1;
+    }
+
+    /**
+     * @return number of entities held, or -1 if unknown
+     */
+    default int getEntityCount() {
+        return -1;
+    }
+}
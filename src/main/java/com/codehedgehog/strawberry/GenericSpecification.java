@@ -2,6 +2,8 @@ package com.codehedgehog.strawberry;
 
 import com.codehedgehog.strawberry.exceptions.BadRequestException;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.NumberUtils;
 import org.springframework.util.StringUtils;
 
 import javax.persistence.criteria.*;
@@ -17,14 +19,68 @@ import java.util.*;
  */
 public class GenericSpecification<T> implements Specification<T> {
     private static final String SQL_LIKE = "%";
-    private SearchCriteria searchCriteria;
+    private static final String PARAMETER_PREFIX = "filter_";
+    private static final String ID_PARAMETER_SUFFIX = "_ids";
+    private static final int MAX_INDEXED_IDS = 1000;
+    private final SearchCriteria searchCriteria;
+    private final Class<?> javaType;
+    private final String[] fieldPath;
+    private final JoinType[] fieldJoinTypes;
+    private final boolean collectionPath;
+    private final SearchOperation[] operations;
+    private final boolean[] orWithPrevious;
+    private final String[] parameterNames;
+    private final Class<?>[] parameterTypes;
+    private final boolean[] indexLookups;
+    private final Object[] parameterValues;
+    private final FullTextIndex<T, ?> fullTextIndex;
+    private final boolean bindValues;
 
-    public GenericSpecification(SearchCriteria searchCriteria) {
+    public GenericSpecification(Class<T> entityClass, SearchCriteria searchCriteria) {
+        this(entityClass, searchCriteria, null);
+    }
+
+    /**
+     * @param entityClass entity on which to search
+     * @param searchCriteria criteria for a single field
+     * @param fullTextIndex index through which to answer text operations on searchable fields, or null if none
+     */
+    public GenericSpecification(Class<T> entityClass, SearchCriteria searchCriteria,
+                                FullTextIndex<T, ?> fullTextIndex) {
+        this(entityClass, searchCriteria, fullTextIndex, true);
+    }
+
+    /**
+     * @param entityClass entity on which to search
+     * @param searchCriteria criteria for a single field
+     * @param fullTextIndex index through which to answer text operations on searchable fields, or null if none
+     * @param bindValues whether values are bound as query parameters, which requires a repository based on
+     *                   {@link BaseJpaRepositoryImpl}, or rendered as literals for any other repository
+     */
+    public GenericSpecification(Class<T> entityClass, SearchCriteria searchCriteria,
+                                FullTextIndex<T, ?> fullTextIndex, boolean bindValues) {
         this.searchCriteria = searchCriteria;
+        this.fullTextIndex = fullTextIndex;
+        this.bindValues = bindValues;
+        this.javaType = EntityTraversalUtility.getDeepestFieldOnObject(entityClass, searchCriteria.getKey()).getType();
+        this.fieldPath = searchCriteria.getKey().split("\\.");
+        this.fieldJoinTypes = JoinRegistry.getJoinTypes(entityClass, fieldPath);
+        this.collectionPath = JoinRegistry.isCollectionPath(fieldJoinTypes);
+
+        int operationCount = searchCriteria.getOperationCount();
+        this.operations = new SearchOperation[operationCount];
+        this.orWithPrevious = new boolean[operationCount];
+        this.parameterNames = new String[operationCount];
+        this.parameterTypes = new Class<?>[operationCount];
+        this.indexLookups = new boolean[operationCount];
+        this.parameterValues = new Object[operationCount];
+        this.createOperations();
     }
 
     /**
-     * Creates a specification predicate for each search term based on the class' search criteria object
+     * Creates a specification predicate for each search term based on the class' search criteria object. Fields
+     * reached through a collection are tested with an EXISTS subquery rather than a join so matching rows are not
+     * multiplied by the size of the collection.
      * @param root entity on which to search
      * @param query the criteria query on which to build
      * @param criteriaBuilder the builder for the criteria query
@@ -32,129 +88,202 @@ public class GenericSpecification<T> implements Specification<T> {
      */
     @Override
     public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder) {
-        Comparator<Map.Entry<SearchOperation, Object>> searchOperationMapComparator = (entry1, entry2) -> {
-            return entry1.getKey().compareTo(entry2.getKey());
-        };
-
-        List<Map.Entry<SearchOperation, Object>> operations = searchCriteria.getOperationValueEntries();
-        Collections.sort(operations, searchOperationMapComparator);
-        Iterator<Map.Entry<SearchOperation, Object>> iterator = operations.iterator();
-        List<String> seenParams = new ArrayList<>();
-        Map.Entry<SearchOperation, Object> entry = iterator.next();
-        Predicate returnPredicate = this.getSearchPredicate(root, criteriaBuilder, entry);
-
-        addSeenParam(seenParams, entry);
-
-        while (iterator.hasNext()) {
-            entry = iterator.next();
-            if (seenParams.contains(searchCriteria.getKey() + entry.getKey().toString())
-                    || (seenParams.contains(searchCriteria.getKey()) && entry.getKey().equals(SearchOperation.NULL))) {
-                returnPredicate = criteriaBuilder.or(returnPredicate, this.getSearchPredicate(root, criteriaBuilder, entry));
+        if (collectionPath) {
+            Subquery<Integer> subquery = query.subquery(Integer.class);
+            Root<T> correlatedRoot = subquery.correlate(root);
+            subquery.select(criteriaBuilder.literal(1))
+                    .where(this.getCriteriaPredicate(JoinRegistry.getPath(correlatedRoot, fieldPath, fieldJoinTypes),
+                            criteriaBuilder));
+            return criteriaBuilder.exists(subquery);
+        }
+        return this.getCriteriaPredicate(JoinRegistry.getPath(root, fieldPath, fieldJoinTypes), criteriaBuilder);
+    }
+
+    /**
+     * Combines the predicates for each of the criteria's operations on the field using the grouping resolved when
+     * the specification was created
+     * @param path path to the entity field
+     * @param criteriaBuilder the builder for the criteria query
+     * @return combined predicate for all operations
+     */
+    private Predicate getCriteriaPredicate(Path<?> path, CriteriaBuilder criteriaBuilder) {
+        Predicate returnPredicate = this.getSearchPredicate(path, criteriaBuilder, 0);
+        for (int i = 1; i < operations.length; i++) {
+            if (orWithPrevious[i]) {
+                returnPredicate = criteriaBuilder.or(returnPredicate, this.getSearchPredicate(path, criteriaBuilder, i));
             } else {
-                returnPredicate = criteriaBuilder.and(returnPredicate, this.getSearchPredicate(root, criteriaBuilder, entry));
-                addSeenParam(seenParams, entry);
+                returnPredicate = criteriaBuilder.and(returnPredicate, this.getSearchPredicate(path, criteriaBuilder, i));
             }
         }
         return returnPredicate;
     }
 
     /**
-     * Keeps track of all seen parameters, including the specific operations
-     * performed (i.e. like, equals, greater, etc)
-     * @param seenParams current list of seen parameters
-     * @param entry the entry to add to the list
+     * Gets the individual search predicate based on the key and operation. A text operation answerable from the full
+     * text index is looked up in the index each time, so a specification held across changes to the index still
+     * sees them, and matches the IDs found unless so many match that scanning with "like" is no worse.
+     * @param path path to the entity field on which to search
+     * @param criteriaBuilder builder for the criteria query
+     * @param index index of the operation with which to build
+     * @return predicate for operation and value
      */
-    private void addSeenParam(List<String> seenParams, Map.Entry<SearchOperation, Object> entry) {
-        seenParams.add(searchCriteria.getKey() + entry.getKey().toString());
-        seenParams.add(searchCriteria.getKey());
+    private Predicate getSearchPredicate(Path<?> path, CriteriaBuilder criteriaBuilder, int index) {
+        if (indexLookups[index]) {
+            Set<?> ids = fullTextIndex.find(fieldPath[0], operations[index],
+                    searchCriteria.getValue(index).toString());
+            if (ids.isEmpty()) {
+                return criteriaBuilder.disjunction();
+            }
+            if (ids.size() <= MAX_INDEXED_IDS) {
+                Path<?> idPath = path.getParentPath().get(fullTextIndex.getIdAttribute());
+                if (!bindValues) {
+                    return idPath.in(ids);
+                }
+                return QueryParameters.in(criteriaBuilder, idPath, parameterNames[index] + ID_PARAMETER_SUFFIX,
+                        new ArrayList<>(ids));
+            }
+        }
+        switch (operations[index]) {
+            case LIKE:
+            case STARTS:
+            case ENDS:
+                return criteriaBuilder.like(criteriaBuilder.upper((Expression<String>) path),
+                        this.<String>getParameter(criteriaBuilder, index));
+            case EQUALS:
+                return criteriaBuilder.equal(criteriaBuilder.upper((Expression<String>) path),
+                        this.getParameter(criteriaBuilder, index));
+            case NOT_EQUAL:
+                return criteriaBuilder.notEqual(criteriaBuilder.upper((Expression<String>) path),
+                        this.getParameter(criteriaBuilder, index));
+            case LESS_THAN:
+                return criteriaBuilder.lessThan((Expression<Comparable>) path,
+                        this.<Comparable>getParameter(criteriaBuilder, index));
+            case GREATER_THAN:
+                return criteriaBuilder.greaterThan((Expression<Comparable>) path,
+                        this.<Comparable>getParameter(criteriaBuilder, index));
+            case NULL:
+                return criteriaBuilder.isNull(path);
+            case NOT_NULL:
+                return criteriaBuilder.isNotNull(path);
+            default:
+                return null;
+        }
     }
 
     /**
-     * Gets the individual search predicate based on the key and operation
-     * @param root root entity on which to search
+     * Creates the named parameter expression for the operation, typed to the value bound to it, or the literal value
+     * when values are not bound
      * @param criteriaBuilder builder for the criteria query
-     * @param operationValueEntry operation and value with which to build
-     * @return predicate for operation and value
+     * @param index index of the operation for which to create the parameter
+     * @param <Y> type of the bound value
+     * @return expression for the operation's value
      */
-    private Predicate getSearchPredicate(Root<T> root, CriteriaBuilder criteriaBuilder, Map.Entry<SearchOperation,
-            Object> operationValueEntry) {
-        try {
-            final String value = operationValueEntry.getValue().toString().toUpperCase();
-            Class<?> javaType = getEntityExpressionObject(root).getJavaType();
-            switch (operationValueEntry.getKey()) {
-                case LIKE:
-                    return criteriaBuilder.like(criteriaBuilder.upper(getEntityExpressionString(root)),
-                            SQL_LIKE + this.getCastValue(javaType, value) + SQL_LIKE);
-                case STARTS:
-                    return criteriaBuilder.like(criteriaBuilder.upper(getEntityExpressionString(root)),
-                            this.getCastValue(javaType, value) + SQL_LIKE);
-                case ENDS:
-                    return criteriaBuilder.like(criteriaBuilder.upper(getEntityExpressionString(root)),
-                            SQL_LIKE + this.getCastValue(javaType, value));
-                case EQUALS:
-                    return criteriaBuilder.equal(criteriaBuilder.upper(getEntityExpressionString(root)),
-                            this.getCastValue(javaType, value));
-                case NOT_EQUAL:
-                    return criteriaBuilder.notEqual(criteriaBuilder.upper(getEntityExpressionString(root)),
-                            this.getCastValue(javaType, value));
-                case LESS_THAN:
-                    return criteriaBuilder.lessThan(getEntityExpressionComparable(root),
-                            (Comparable) this.getCastValue(javaType, value));
-                case GREATER_THAN:
-                    return criteriaBuilder.greaterThan(getEntityExpressionComparable(root),
-                            (Comparable) this.getCastValue(javaType, value));
-                case NULL:
-                    return criteriaBuilder.isNull(getEntityExpressionObject(root));
-                case NOT_NULL:
-                    return criteriaBuilder.isNotNull(getEntityExpressionObject(root));
-                default:
-                    return null;
+    private <Y> Expression<Y> getParameter(CriteriaBuilder criteriaBuilder, int index) {
+        if (!bindValues) {
+            return criteriaBuilder.literal((Y) parameterValues[index]);
+        }
+        return QueryParameters.parameter(criteriaBuilder, (Class<Y>) parameterTypes[index], parameterNames[index],
+                (Y) parameterValues[index]);
+    }
+
+    /**
+     * Resolves, once, everything each operation needs to build its predicate. Operations arrive ordered from the
+     * search criteria; a repeat of an operation already seen, or a null check, is combined with "or" and all others
+     * with "and". Each value is cast and assigned a parameter name derived only from the key, operation and
+     * occurrence so that queries of the same shape render the same SQL regardless of the values supplied. Text
+     * operations on a field held in the full text index are marked to be looked up in the index as each predicate
+     * is created.
+     */
+    private void createOperations() {
+        Set<SearchOperation> seenOperations = EnumSet.noneOf(SearchOperation.class);
+        Map<SearchOperation, Integer> operationOccurrences = new EnumMap<>(SearchOperation.class);
+        String keyName = PARAMETER_PREFIX + searchCriteria.getKey().replace('.', '_') + "_";
+        for (int i = 0; i < operations.length; i++) {
+            SearchOperation operation = searchCriteria.getOperation(i);
+            Object value = searchCriteria.getValue(i);
+            operations[i] = operation;
+            if (i > 0 && (seenOperations.contains(operation) || operation == SearchOperation.NULL)) {
+                orWithPrevious[i] = true;
+            } else {
+                seenOperations.add(operation);
             }
-        } catch (ParseException e) {
-            throw new BadRequestException(e.getMessage());
+            if (operation == SearchOperation.NULL || operation == SearchOperation.NOT_NULL) {
+                continue;
+            }
+            Integer occurrence = operationOccurrences.getOrDefault(operation, 0);
+            operationOccurrences.put(operation, occurrence + 1);
+            parameterNames[i] = keyName + operation.name().toLowerCase() + "_" + occurrence;
+            indexLookups[i] = this.isIndexLookup(operation, value);
+            Object parameterValue = this.getParameterValue(operation, value);
+            parameterTypes[i] = parameterValue instanceof Enum
+                    ? ((Enum<?>) parameterValue).getDeclaringClass() : parameterValue.getClass();
+            parameterValues[i] = parameterValue;
         }
     }
 
     /**
-     * Gets the string of the path to the entity field for operation
-     * @param root entity root
-     * @return string path to entity field
+     * Checks whether the operation can be answered from the full text index - a "like", "starts" or "ends" on an
+     * indexed field of the entity itself, with a value free of SQL wildcards
+     * @param operation operation to check
+     * @param operationValue value of the operation
+     * @return true if the index can find the matching IDs
      */
-    private Path<String> getEntityExpressionString(Root<T> root) {
-        String[] paths = searchCriteria.getKey().split("\\.");
-        Path<String> partialPath = root.get(paths[0]);
-        for (int i = 1; i < paths.length; i++) {
-            partialPath = partialPath.get(paths[i]);
+    private boolean isIndexLookup(SearchOperation operation, Object operationValue) {
+        if (fullTextIndex == null || fieldPath.length != 1 || !fullTextIndex.isIndexed(fieldPath[0])) {
+            return false;
         }
-        return partialPath;
+        String value = operationValue.toString();
+        return (operation == SearchOperation.LIKE || operation == SearchOperation.STARTS
+                || operation == SearchOperation.ENDS) && value.indexOf('%') < 0 && value.indexOf('_') < 0;
     }
 
     /**
-     * Gets the path object to the entity field for operation
-     * @param root entity root
-     * @return object path to entity field
+     * Gets the value to bind for the operation, including any wildcards
+     * @param operation operation for which to get the bound value
+     * @param operationValue value of the operation
+     * @return value to bind to the operation's parameter
      */
-    private Path<Object> getEntityExpressionObject(Root<T> root) {
-        String[] paths = searchCriteria.getKey().split("\\.");
-        Path<Object> partialPath = root.get(paths[0]);
-        for (int i = 1; i < paths.length; i++) {
-            partialPath = partialPath.get(paths[i]);
+    private Object getParameterValue(SearchOperation operation, Object operationValue) {
+        try {
+            final String value = operationValue.toString().toUpperCase();
+            Object castValue = this.getCastValue(javaType, value);
+            if (castValue == null) {
+                throw new BadRequestException("Invalid value for " + searchCriteria.getKey());
+            }
+            switch (operation) {
+                case LIKE:
+                    return SQL_LIKE + castValue + SQL_LIKE;
+                case STARTS:
+                    return castValue + SQL_LIKE;
+                case ENDS:
+                    return SQL_LIKE + castValue;
+                case LESS_THAN:
+                case GREATER_THAN:
+                    return this.getComparableValue(castValue);
+                default:
+                    return castValue;
+            }
+        } catch (ParseException e) {
+            throw new BadRequestException(e.getMessage());
         }
-        return partialPath;
     }
 
     /**
-     * Gets the path comparable to the entity field for operation
-     * @param root entity root
-     * @return object path to entity field
+     * Gets the value to compare against a numeric field as a number of the field's type, since a bound parameter is
+     * not converted by the database the way an inline literal is
+     * @param castValue value cast into the entity field type
+     * @return value to compare against the field
      */
-    private Path<Comparable> getEntityExpressionComparable(Root<T> root) {
-        String[] paths = searchCriteria.getKey().split("\\.");
-        Path<Comparable> partialPath = root.get(paths[0]);
-        for (int i = 1; i < paths.length; i++) {
-            partialPath = partialPath.get(paths[i]);
+    private Object getComparableValue(Object castValue) {
+        Class<?> fieldType = ClassUtils.resolvePrimitiveIfNecessary(javaType);
+        if (castValue instanceof String && Number.class.isAssignableFrom(fieldType)) {
+            try {
+                return NumberUtils.parseNumber((String) castValue, (Class<? extends Number>) fieldType);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException("Invalid value for " + searchCriteria.getKey());
+            }
         }
-        return partialPath;
+        return castValue;
     }
 
     /**
@@ -0,0 +1,115 @@
+package com.codehedgehog.strawberry;
+
+import org.hibernate.Hibernate;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.Status;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.util.Assert;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import java.io.Serializable;
+
+/**
+ * Reaches into Hibernate where JPA offers no equivalent. Hibernate is an optional dependency, so callers check that
+ * it is present before referring to this class.
+ */
+final class HibernateSupport {
+
+    private HibernateSupport() {
+    }
+
+    /**
+     * Checks whether an entity manager factory is provided by Hibernate
+     * @param entityManagerFactory entity manager factory
+     * @return whether the factory is Hibernate's
+     */
+    static boolean isHibernate(EntityManagerFactory entityManagerFactory) {
+        try {
+            entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+            return true;
+        } catch (PersistenceException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the entity with the given ID if the persistence context of the entity manager already holds it,
+     * without touching the database or registering anything in the persistence context
+     * @param entityManager entity manager bound to the current transaction
+     * @param entityClass class of the entity
+     * @param id ID of the entity
+     * @param <T> entity type
+     * @return the managed entity, or its proxy if one was handed out, or null if it is not loaded or is removed
+     */
+    static <T> T getLoadedEntity(EntityManager entityManager, Class<T> entityClass, Serializable id) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        EntityPersister persister = session.getFactory().getMetamodel().entityPersister(entityClass);
+        EntityKey key = session.generateEntityKey(id, persister);
+        PersistenceContext persistenceContext = session.getPersistenceContext();
+        Object entity = persistenceContext.getEntity(key);
+        if (entity == null) {
+            return null;
+        }
+        EntityEntry entry = persistenceContext.getEntry(entity);
+        if (entry != null && (entry.getStatus() == Status.DELETED || entry.getStatus() == Status.GONE)) {
+            return null;
+        }
+        return entityClass.cast(persistenceContext.proxyFor(persister, key, entity));
+    }
+
+    /**
+     * Checks whether a value is loaded, i.e. it is not a proxy or collection which has yet to be initialized
+     * @param value value to check
+     * @return whether the value is loaded
+     */
+    static boolean isInitialized(Object value) {
+        return Hibernate.isInitialized(value);
+    }
+
+    /**
+     * Gets the object behind an initialized proxy
+     * @param value value which may be a proxy
+     * @return the proxy's target, or the value itself if it is not a proxy
+     */
+    static Object unproxy(Object value) {
+        return Hibernate.unproxy(value);
+    }
+
+    /**
+     * Gets the name of the table an entity is stored in, as Hibernate writes it
+     * @param entityManagerFactory Hibernate entity manager factory
+     * @param entityClass class of the entity
+     * @return table name, qualified by its schema if one is given
+     */
+    static String getTableName(EntityManagerFactory entityManagerFactory, Class<?> entityClass) {
+        return getEntityPersister(entityManagerFactory, entityClass).getTableName();
+    }
+
+    /**
+     * Gets the names of the columns an attribute of an entity is stored in, as Hibernate writes them
+     * @param entityManagerFactory Hibernate entity manager factory
+     * @param entityClass class of the entity
+     * @param attributePath attribute names from the entity to the attribute, separated by dots
+     * @return column names
+     */
+    static String[] getColumnNames(EntityManagerFactory entityManagerFactory, Class<?> entityClass,
+                                   String attributePath) {
+        return getEntityPersister(entityManagerFactory, entityClass).getPropertyColumnNames(attributePath);
+    }
+
+    private static AbstractEntityPersister getEntityPersister(EntityManagerFactory entityManagerFactory,
+                                                              Class<?> entityClass) {
+        EntityPersister persister = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getMetamodel()
+                .entityPersister(entityClass);
+        Assert.state(persister instanceof AbstractEntityPersister,
+                "Table mappings are not available for " + entityClass.getName());
+        return (AbstractEntityPersister) persister;
+    }
+}
@@ -0,0 +1,76 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.util.Assert;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Tombstone store holding the most recent deletions in memory, discarding the oldest once full. Deletions are kept
+ * in order of their time rather than of their recording, as concurrent deletes may be recorded out of order.
+ * Deletions from before the store was created are unknown to it, as are those of any earlier instance.
+ */
+public class InMemoryTombstoneStore<ID> implements TombstoneStore<ID> {
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private final int capacity;
+    private final NavigableSet<Tombstone<ID>> tombstones;
+    private long retainedFrom;
+    private long sequence;
+
+    public InMemoryTombstoneStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public InMemoryTombstoneStore(int capacity) {
+        Assert.isTrue(capacity > 0, "Capacity must be greater than zero");
+        this.capacity = capacity;
+        this.tombstones = new TreeSet<>();
+        this.retainedFrom = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void record(ID id, long deletedAt) {
+        tombstones.add(new Tombstone<>(id, deletedAt, sequence++));
+        if (tombstones.size() > capacity) {
+            retainedFrom = Math.max(retainedFrom, tombstones.pollFirst().deletedAt + 1);
+        }
+    }
+
+    @Override
+    public synchronized Map<ID, Long> getDeletedSince(long since) {
+        Map<ID, Long> deletedSince = new LinkedHashMap<>();
+        for (Tombstone<ID> tombstone : tombstones.tailSet(new Tombstone<>(null, since, Long.MIN_VALUE), true)) {
+            deletedSince.put(tombstone.id, tombstone.deletedAt);
+        }
+        return deletedSince;
+    }
+
+    @Override
+    public synchronized boolean isRetainedSince(long since) {
+        return since >= retainedFrom;
+    }
+
+    /**
+     * Deletion ordered by its time, then by the order in which it was recorded
+     */
+    private static class Tombstone<ID> implements Comparable<Tombstone<ID>> {
+        private final ID id;
+        private final long deletedAt;
+        private final long sequence;
+
+        private Tombstone(ID id, long deletedAt, long sequence) {
+            this.id = id;
+            this.deletedAt = deletedAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Tombstone<ID> other) {
+            int comparison = Long.compare(deletedAt, other.deletedAt);
+            return comparison != 0 ? comparison : Long.compare(sequence, other.sequence);
+        }
+    }
+}
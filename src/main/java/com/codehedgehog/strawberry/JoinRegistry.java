@@ -0,0 +1,122 @@
+package com.codehedgehog.strawberry;
+
+import javax.persistence.ElementCollection;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Resolves dot-notation field paths against a query root. Joins are kept on the root itself, so each association
+ * is joined once per query and reused by every predicate and sort order that walks through it.
+ */
+public class JoinRegistry {
+
+    /**
+     * Works out how each field of the path is reached from the entity. Singular associations are left joined,
+     * matching the joins Spring Data creates when sorting so those are shared as well. Collections are inner joined
+     * and should only be walked from a subquery root. Fields read directly, or beneath an embedded field, have no
+     * join type.
+     * @param entityClass entity from which the path starts
+     * @param fields path to the field, split on dots
+     * @return join type for each field of the path, null where the field is read directly
+     */
+    public static JoinType[] getJoinTypes(Class<?> entityClass, String[] fields) {
+        JoinType[] joinTypes = new JoinType[fields.length];
+        Class<?> clazz = entityClass;
+        for (int i = 0; i < fields.length && clazz != null; i++) {
+            Field field = EntityTraversalUtility.getFieldOnObject(clazz, fields[i]);
+            if (isCollection(field)) {
+                joinTypes[i] = JoinType.INNER;
+            } else if (i < fields.length - 1 && isSingularAssociation(field)) {
+                joinTypes[i] = JoinType.LEFT;
+            } else {
+                break;
+            }
+            clazz = getFieldType(field);
+        }
+        return joinTypes;
+    }
+
+    /**
+     * Gets the path to the field, joining associations along the way or reusing a join already on the query
+     * @param from root or join from which to start
+     * @param fields path to the field, split on dots
+     * @param joinTypes join type for each field as given by {@link #getJoinTypes(Class, String[])}
+     * @return path to the field
+     */
+    public static Path<?> getPath(From<?, ?> from, String[] fields, JoinType[] joinTypes) {
+        From<?, ?> currentFrom = from;
+        Path<?> path = from;
+        for (int i = 0; i < fields.length; i++) {
+            if (joinTypes[i] != null) {
+                currentFrom = getOrCreateJoin(currentFrom, fields[i], joinTypes[i]);
+                path = currentFrom;
+            } else {
+                path = path.get(fields[i]);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Finds an existing join on the attribute with the same join type or creates it
+     * @param from root or join holding the joins
+     * @param attribute name of the attribute to join
+     * @param joinType type of join
+     * @return join for the attribute
+     */
+    public static Join<?, ?> getOrCreateJoin(From<?, ?> from, String attribute, JoinType joinType) {
+        for (Join<?, ?> join : from.getJoins()) {
+            if (join.getAttribute().getName().equals(attribute) && join.getJoinType().equals(joinType)) {
+                return join;
+            }
+        }
+        return from.join(attribute, joinType);
+    }
+
+    /**
+     * Checks whether a path passes through a collection, so it must be walked from a subquery
+     * @param joinTypes join type for each field as given by {@link #getJoinTypes(Class, String[])}
+     * @return whether any field of the path is a collection
+     */
+    public static boolean isCollectionPath(JoinType[] joinTypes) {
+        for (JoinType joinType : joinTypes) {
+            if (joinType == JoinType.INNER) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Class<?> getFieldType(Field field) {
+        if (isCollection(field) && field.getGenericType() instanceof ParameterizedType) {
+            Type[] typeArguments = ((ParameterizedType) field.getGenericType()).getActualTypeArguments();
+            Type elementType = typeArguments[typeArguments.length - 1];
+            return elementType instanceof Class ? (Class<?>) elementType : null;
+        }
+        return field.getType();
+    }
+
+    private static boolean isSingularAssociation(Field field) {
+        return field != null && (field.isAnnotationPresent(ManyToOne.class)
+                || field.isAnnotationPresent(OneToOne.class));
+    }
+
+    private static boolean isCollection(Field field) {
+        return field != null && (field.isAnnotationPresent(OneToMany.class)
+                || field.isAnnotationPresent(ManyToMany.class)
+                || field.isAnnotationPresent(ElementCollection.class)
+                || Collection.class.isAssignableFrom(field.getType())
+                || Map.class.isAssignableFrom(field.getType()));
+    }
+}
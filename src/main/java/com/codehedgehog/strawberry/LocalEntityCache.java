@@ -0,0 +1,155 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.util.Assert;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-process entity cache on a concurrent map, bounded in size with entries expiring a fixed time after being
+ * cached. Entries are copied on the way in and out so callers never share an instance with the cache. By default
+ * the copies are deep and detached: associated entities, embedded objects, collections and dates are copied too,
+ * and associations that were never loaded are left null. Supply a copier for entities holding other mutable state.
+ */
+public class LocalEntityCache<ID, T> implements EntityCache<ID, T> {
+    private static final int GENERATION_STRIPES = 64;
+    private static final int EVICTION_BATCH_PERCENT = 10;
+
+    private final ConcurrentHashMap<ID, CacheEntry<T>> entries;
+    private final int maximumSize;
+    private final int evictionTargetSize;
+    private final long timeToLiveNanos;
+    private final UnaryOperator<T> copier;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final AtomicLong clearGeneration = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LocalEntityCache(int maximumSize, long timeToLive, TimeUnit timeUnit) {
+        this(maximumSize, timeToLive, timeUnit, EntityCopier::copy);
+    }
+
+    public LocalEntityCache(int maximumSize, long timeToLive, TimeUnit timeUnit, UnaryOperator<T> copier) {
+        Assert.isTrue(maximumSize > 0, "Maximum size must be greater than zero");
+        Assert.isTrue(timeToLive > 0, "Time to live must be greater than zero");
+        Assert.notNull(timeUnit, "Time unit must not be null");
+        Assert.notNull(copier, "Copier must not be null");
+        this.entries = new ConcurrentHashMap<>(Math.min(maximumSize, 1024));
+        this.maximumSize = maximumSize;
+        this.evictionTargetSize = maximumSize - Math.max(1, maximumSize / 100 * EVICTION_BATCH_PERCENT);
+        this.timeToLiveNanos = timeUnit.toNanos(timeToLive);
+        this.copier = copier;
+    }
+
+    @Override
+    public T get(ID id) {
+        CacheEntry<T> entry = entries.get(id);
+        if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+            hits.increment();
+            return copier.apply(entry.entity);
+        }
+        if (entry != null && entries.remove(id, entry)) {
+            evictions.increment();
+        }
+        misses.increment();
+        return null;
+    }
+
+    @Override
+    public long getGeneration(ID id) {
+        // both only ever increase, so the sum changes whenever either does
+        return generations.get(getStripe(id)) + clearGeneration.get();
+    }
+
+    @Override
+    public T put(ID id, T entity, long generation) {
+        if (entity == null) {
+            return null;
+        }
+        if (getGeneration(id) != generation) {
+            return copier.apply(entity);
+        }
+        CacheEntry<T> entry = new CacheEntry<>(copier.apply(entity), System.nanoTime() + timeToLiveNanos);
+        entries.put(id, entry);
+        // an eviction between the check above and the put must not be undone
+        if (getGeneration(id) != generation) {
+            entries.remove(id, entry);
+        } else if (entries.size() > maximumSize) {
+            this.evictToTargetSize();
+        }
+        return copier.apply(entity);
+    }
+
+    @Override
+    public void evict(ID id) {
+        generations.incrementAndGet(getStripe(id));
+        entries.remove(id);
+    }
+
+    @Override
+    public void evictAll() {
+        clearGeneration.incrementAndGet();
+        entries.clear();
+    }
+
+    @Override
+    public EntityCacheStatistics getStatistics() {
+        return new EntityCacheStatistics(hits.sum(), misses.sum(), evictions.sum(), entries.size());
+    }
+
+    /**
+     * Removes expired entries and, if still over the target size, as many others as needed in the map's own
+     * iteration order, which spreads the removals across the whole key space without any shared ordering to lock.
+     * Evicting down to a tenth below the maximum size means the map is scanned at most once per that many puts,
+     * and puts made while another thread is evicting do not wait for it.
+     */
+    private void evictToTargetSize() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.removeEntries();
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void removeEntries() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<ID, CacheEntry<T>>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().getValue().expiresAt - now <= 0) {
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+        for (Iterator<ID> iterator = entries.keySet().iterator();
+             entries.size() > evictionTargetSize && iterator.hasNext(); ) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    private int getStripe(ID id) {
+        return (id == null ? 0 : id.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    private static class CacheEntry<T> {
+        private final T entity;
+        private final long expiresAt;
+
+        private CacheEntry(T entity, long expiresAt) {
+            this.entity = entity;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
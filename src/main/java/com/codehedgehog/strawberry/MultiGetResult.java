@@ -0,0 +1,31 @@
+package com.codehedgehog.strawberry;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Objects found for a list of IDs, along with the IDs for which nothing was found.
+ */
+public class MultiGetResult<T, ID> {
+    private final List<T> objects;
+    private final List<ID> missingIds;
+
+    public MultiGetResult(List<T> objects, List<ID> missingIds) {
+        this.objects = Collections.unmodifiableList(objects);
+        this.missingIds = Collections.unmodifiableList(missingIds);
+    }
+
+    /**
+     * @return objects found, in the order their IDs were requested
+     */
+    public List<T> getObjects() {
+        return objects;
+    }
+
+    /**
+     * @return requested IDs for which no object exists, in the order they were requested
+     */
+    public List<ID> getMissingIds() {
+        return missingIds;
+    }
+}
@@ -5,38 +5,58 @@ import org.springframework.data.jpa.domain.Specification;
 import org.springframework.util.Assert;
 
 import javax.persistence.criteria.*;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by Jon on 1/19/2019.
  */
 public class NonPredicateSpecification<T> implements Specification<T> {
-    private SearchCriteria nonPredicateCriterion;
-    private List<SearchCriteria> predicateCriteria;
+    private final SearchOperation nonPredicateSearchOperation;
+    private final String nonPredicateField;
+    private final List<GenericSpecification<T>> predicateSpecifications;
 
-    public NonPredicateSpecification(SearchCriteria nonPredicateCriterion, List<SearchCriteria> predicateCriteria) {
+    public NonPredicateSpecification(Class<T> entityClass, SearchCriteria nonPredicateCriterion,
+                                     List<SearchCriteria> predicateCriteria) {
+        this(entityClass, nonPredicateCriterion, predicateCriteria, null);
+    }
+
+    public NonPredicateSpecification(Class<T> entityClass, SearchCriteria nonPredicateCriterion,
+                                     List<SearchCriteria> predicateCriteria, FullTextIndex<T, ?> fullTextIndex) {
+        this(entityClass, nonPredicateCriterion, predicateCriteria, fullTextIndex, true);
+    }
+
+    /**
+     * @param entityClass entity on which to search
+     * @param nonPredicateCriterion criterion selecting the greatest or least value of a field
+     * @param predicateCriteria criteria the entities in the subquery must match
+     * @param fullTextIndex index through which to answer text operations on searchable fields, or null if none
+     * @param bindValues whether values are bound as query parameters, which requires a repository based on
+     *                   {@link BaseJpaRepositoryImpl}, or rendered as literals for any other repository
+     */
+    public NonPredicateSpecification(Class<T> entityClass, SearchCriteria nonPredicateCriterion,
+                                     List<SearchCriteria> predicateCriteria, FullTextIndex<T, ?> fullTextIndex,
+                                     boolean bindValues) {
+        Assert.notNull(entityClass, "entityClass must not be null");
         Assert.notNull(nonPredicateCriterion, "nonPredicateCriterion must not be null");
         Assert.notNull(predicateCriteria, "predicateCriteria must not be null");
-        this.nonPredicateCriterion = nonPredicateCriterion;
-        this.predicateCriteria = predicateCriteria;
+        if (nonPredicateCriterion.getOperationCount() > 1) {
+            throw new BadRequestException("Multiple terminal queries for field " + nonPredicateCriterion.getKey());
+        }
+        this.nonPredicateSearchOperation = nonPredicateCriterion.getOperation(0);
+        this.nonPredicateField = nonPredicateCriterion.getValue(0).toString();
+        List<GenericSpecification<T>> specifications = new ArrayList<>(predicateCriteria.size());
+        for (SearchCriteria searchCriteria : predicateCriteria) {
+            specifications.add(new GenericSpecification<>(entityClass, searchCriteria, fullTextIndex, bindValues));
+        }
+        this.predicateSpecifications = Collections.unmodifiableList(specifications);
     }
 
     @Override
     public javax.persistence.criteria.Predicate toPredicate(Root<T> root, CriteriaQuery<?> criteriaQuery,
                                                             CriteriaBuilder criteriaBuilder) {
-        List<Map.Entry<SearchOperation, Object>> nonPredicateCriteria = nonPredicateCriterion.getOperationValueEntries();
-        SearchOperation nonPredicateSearchOperation;
-        Object nonPredicateValue;
-        if (nonPredicateCriteria.size() > 1) {
-            throw new BadRequestException("Multiple terminal queries for field " + nonPredicateCriterion.getKey());
-        } else {
-            nonPredicateSearchOperation = nonPredicateCriteria.get(0).getKey();
-            nonPredicateValue = nonPredicateCriteria.get(0).getValue();
-        }
-
-        Class subqueryClass = root.get(nonPredicateValue.toString()).getClass();
+        Class subqueryClass = root.get(nonPredicateField).getClass();
         Class rootClass = root.getJavaType();
 
         Subquery<T> subquery = criteriaQuery.subquery(subqueryClass);
@@ -45,35 +65,31 @@ public class NonPredicateSpecification<T> implements Specification<T> {
         switch(nonPredicateSearchOperation) {
             case GREATEST:
                 Expression maxExpression = criteriaBuilder.greatest(
-                        subqueryRoot.<String>get(nonPredicateValue.toString()));
+                        subqueryRoot.<String>get(nonPredicateField));
                 subquery.select(maxExpression);
-                if (!predicateCriteria.isEmpty()) {
+                if (!predicateSpecifications.isEmpty()) {
                     subquery.where(getSubquerySpecifications(subqueryRoot, criteriaQuery, criteriaBuilder));
                 }
                 break;
             case LEAST:
                 Expression minExpression = criteriaBuilder.least(
-                        subqueryRoot.<String>get(nonPredicateValue.toString()));
+                        subqueryRoot.<String>get(nonPredicateField));
                 subquery.select(minExpression);
-                if (!predicateCriteria.isEmpty()) {
+                if (!predicateSpecifications.isEmpty()) {
                     subquery.where(getSubquerySpecifications(subqueryRoot, criteriaQuery, criteriaBuilder));
                 }
                 break;
         }
 
-        return criteriaBuilder.in(root.get(nonPredicateValue.toString())).value(subquery);
+        return criteriaBuilder.in(root.get(nonPredicateField)).value(subquery);
     }
 
     private Expression getSubquerySpecifications(Root<T> root, CriteriaQuery<?> criteriaQuery,
                                                  CriteriaBuilder criteriaBuilder) {
-        Iterator<SearchCriteria> iterator = predicateCriteria.iterator();
-        SearchCriteria searchCriteria = iterator.next();
-        Predicate completePredicate = new GenericSpecification<T>(searchCriteria)
-                .toPredicate(root, criteriaQuery, criteriaBuilder);
-        while (iterator.hasNext()) {
-            searchCriteria = iterator.next();
+        Predicate completePredicate = predicateSpecifications.get(0).toPredicate(root, criteriaQuery, criteriaBuilder);
+        for (int i = 1; i < predicateSpecifications.size(); i++) {
             completePredicate = criteriaBuilder.and(completePredicate,
-                    new GenericSpecification<T>(searchCriteria).toPredicate(root, criteriaQuery, criteriaBuilder));
+                    predicateSpecifications.get(i).toPredicate(root, criteriaQuery, criteriaBuilder));
         }
         return completePredicate;
     }
@@ -0,0 +1,32 @@
+package com.codehedgehog.strawberry;
+
+/**
+ * Where a database places nulls in a sort that does not say, as reported by its JDBC metadata
+ */
+public enum NullOrdering {
+    /** Nulls sort above all other values - last ascending and first descending, as on PostgreSQL and Oracle */
+    HIGH,
+    /** Nulls sort below all other values - first ascending and last descending, as on MySQL, SQL Server and H2 */
+    LOW,
+    /** Nulls come first whatever the direction */
+    FIRST,
+    /** Nulls come last whatever the direction */
+    LAST;
+
+    /**
+     * @param descending true if the sort is descending
+     * @return true if nulls come before all other values in a sort in that direction
+     */
+    public boolean isNullsFirst(boolean descending) {
+        switch (this) {
+            case HIGH:
+                return descending;
+            case LOW:
+                return !descending;
+            case FIRST:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.codehedgehog.strawberry;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of objects along with the total number of objects matching across all pages.
+ */
+public class ObjectPage<T> {
+    private final List<T> objects;
+    private final long total;
+    private final boolean exact;
+
+    public ObjectPage(List<T> objects, long total, boolean exact) {
+        this.objects = Collections.unmodifiableList(objects);
+        this.total = total;
+        this.exact = exact;
+    }
+
+    /**
+     * @return objects on the page
+     */
+    public List<T> getObjects() {
+        return objects;
+    }
+
+    /**
+     * @return total number of objects matching across all pages
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return true if the total was counted, false if it was estimated
+     */
+    public boolean isExact() {
+        return exact;
+    }
+}
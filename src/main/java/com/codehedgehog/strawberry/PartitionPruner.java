@@ -0,0 +1,18 @@
+package com.codehedgehog.strawberry;
+
+import java.util.List;
+
+/**
+ * Decides from a request's search criteria which partitions of a {@link PartitionedRestfulService} can hold
+ * matching objects, so the others need not be queried.
+ */
+@FunctionalInterface
+public interface PartitionPruner {
+
+    /**
+     * @param partition name of the partition
+     * @param searchCriteria search criteria of the request, empty if unfiltered
+     * @return false only if no object in the partition can match the criteria
+     */
+    boolean mayMatch(String partition, List<SearchCriteria> searchCriteria);
+}
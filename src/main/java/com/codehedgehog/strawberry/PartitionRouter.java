@@ -0,0 +1,15 @@
+package com.codehedgehog.strawberry;
+
+/**
+ * Decides which partition of a {@link PartitionedRestfulService} an object is written to, from the same key the
+ * partitions are split by - its tenant or date, say.
+ */
+@FunctionalInterface
+public interface PartitionRouter<T> {
+
+    /**
+     * @param object object being saved or upserted
+     * @return name of the partition holding the object
+     */
+    String getPartition(T object);
+}
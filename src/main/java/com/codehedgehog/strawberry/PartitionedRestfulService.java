@@ -0,0 +1,440 @@
+package com.codehedgehog.strawberry;
+
+import com.codehedgehog.strawberry.exceptions.BadRequestException;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.util.Assert;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Service for an entity split across several repositories, i.e. one per database or schema holding a tenant or
+ * a range of dates. Reads are scattered to every partition the {@link PartitionPruner} cannot rule out and the
+ * results gathered back together: lists are read from each partition in sorted chunks and merged, so a page is
+ * served by reading little more than its own rows from each partition rather than a full page from every one.
+ * Saves and upserts are routed to each object's partition by a {@link PartitionRouter}, and deletes to whichever
+ * partition holds the ID. Change feeds merge the changes of every partition that may match. Every partition must
+ * be created with {@link BaseJpaRepositoryImpl} as its repository base class. Lookups by ID go through the entity
+ * cache, if one is set, but partitioned services have no full text index and reject "search" requests.
+ *
+ * Merged lists are ordered in Java from the objects' properties, placing nulls where the partitions' database
+ * does; sorting by text in a database collation other than binary may interleave partitions slightly differently
+ * than a single database would.
+ */
+public class PartitionedRestfulService<R extends BaseJpaRepository<T, ID>, T, ID extends Serializable>
+        extends RestfulService<R, T, ID> {
+    private static final int MINIMUM_CHUNK_SIZE = 10;
+    private static final int MAXIMUM_CHUNK_SIZE = 1000;
+    private static final long EXACT_COUNT_LIMIT = 10000;
+    private static final String SEARCH_PARAMETER = "search";
+
+    private final Map<String, R> partitions;
+    private final PartitionPruner partitionPruner;
+    private final PartitionRouter<T> partitionRouter;
+    private final Executor executor;
+    private volatile NullOrdering nullOrdering;
+
+    /**
+     * Creates a service querying the partitions one after another
+     * @param partitions repository for each partition keyed by partition name
+     * @param partitionPruner decides which partitions can match a request
+     * @param partitionRouter decides which partition each object is written to
+     */
+    public PartitionedRestfulService(Map<String, R> partitions, PartitionPruner partitionPruner,
+                                     PartitionRouter<T> partitionRouter) {
+        this(partitions, partitionPruner, partitionRouter, Runnable::run);
+    }
+
+    /**
+     * Creates a service querying the partitions in parallel
+     * @param partitions repository for each partition keyed by partition name
+     * @param partitionPruner decides which partitions can match a request
+     * @param partitionRouter decides which partition each object is written to
+     * @param executor executor on which to query the partitions
+     */
+    public PartitionedRestfulService(Map<String, R> partitions, PartitionPruner partitionPruner,
+                                     PartitionRouter<T> partitionRouter, Executor executor) {
+        super(getFirstPartition(partitions));
+        for (Map.Entry<String, R> partition : partitions.entrySet()) {
+            Assert.state(BaseJpaRepositoryImpl.getImplementation(partition.getValue()) != null, "Partition "
+                    + partition.getKey() + " must be created with BaseJpaRepositoryImpl as its repository base class");
+        }
+        Assert.notNull(partitionPruner, "Partition pruner must not be null");
+        Assert.notNull(partitionRouter, "Partition router must not be null");
+        Assert.notNull(executor, "Executor must not be null");
+        this.partitions = Collections.unmodifiableMap(new LinkedHashMap<>(partitions));
+        this.partitionPruner = partitionPruner;
+        this.partitionRouter = partitionRouter;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the merged objects from every partition that may match, filtered, sorted and paged as for a single
+     * repository. The ID is always added as the final sort so the merged order is stable.
+     * @param parameters query parameters
+     * @return matching objects
+     * @throws BadRequestException if the parameters ask for a search, which partitioned services do not support
+     */
+    @Override
+    protected List<T> getObjects(Map<String, String[]> parameters) {
+        if (parameters.containsKey(SEARCH_PARAMETER)) {
+            throw new BadRequestException("Search is not supported for " + this.getClassType().getSimpleName());
+        }
+        Sort sort = this.getMergeSort(parameters);
+        PageRequest pageRequest = this.getPageRequest(parameters, sort);
+        List<SearchCriteria> searchCriteriaList = this.getSearchCriteria(parameters);
+        Specification<T> objectSpecification = this.getSpecification(searchCriteriaList);
+        long skip = pageRequest == null ? 0 : pageRequest.getOffset();
+        long limit = pageRequest == null ? Long.MAX_VALUE : pageRequest.getPageSize();
+        return this.mergeSorted(this.getMatchingPartitions(searchCriteriaList), objectSpecification, sort, skip,
+                limit);
+    }
+
+    /**
+     * Gets a page of merged objects along with the total matching across the partitions. With "total=estimate",
+     * partitions with more than 10,000 matches have their share estimated rather than counted.
+     * @param parameters query parameters
+     * @return objects on the page and the total matching
+     */
+    @Override
+    protected ObjectPage<T> getObjectPage(Map<String, String[]> parameters) {
+        List<T> objects = this.getObjects(parameters);
+        if (this.getPageRequest(parameters, Sort.unsorted()) == null) {
+            return new ObjectPage<>(objects, objects.size(), true);
+        }
+        List<SearchCriteria> searchCriteriaList = this.getSearchCriteria(parameters);
+        Specification<T> objectSpecification = this.getSpecification(searchCriteriaList);
+        boolean estimate = parameters.containsKey("total") && "estimate".equalsIgnoreCase(parameters.get("total")[0]);
+        List<CompletableFuture<long[]>> counts = new ArrayList<>();
+        for (R repository : this.getMatchingPartitions(searchCriteriaList)) {
+            counts.add(CompletableFuture.supplyAsync(() -> {
+                if (!estimate) {
+                    return new long[]{repository.count(objectSpecification), 1};
+                }
+                long count = repository.countUpTo(objectSpecification, EXACT_COUNT_LIMIT);
+                return count <= EXACT_COUNT_LIMIT ? new long[]{count, 1}
+                        : new long[]{Math.max(repository.estimateCount(objectSpecification), count), 0};
+            }, executor));
+        }
+        long total = 0;
+        boolean exact = true;
+        for (CompletableFuture<long[]> count : counts) {
+            long[] partitionCount = join(count);
+            total += partitionCount[0];
+            exact &= partitionCount[1] == 1;
+        }
+        return new ObjectPage<>(objects, total, exact);
+    }
+
+    /**
+     * Looks for the object in every partition
+     * @param objectId ID of the object
+     * @return object from the first partition holding it, or null if none does
+     */
+    @Override
+    protected T findObject(ID objectId) {
+        List<CompletableFuture<T>> lookups = new ArrayList<>(partitions.size());
+        for (R repository : partitions.values()) {
+            lookups.add(CompletableFuture.supplyAsync(() -> repository.findOne(objectId), executor));
+        }
+        T object = null;
+        for (CompletableFuture<T> lookup : lookups) {
+            T partitionObject = join(lookup);
+            if (object == null) {
+                object = partitionObject;
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Looks for each object in every partition
+     * @param objectIds IDs of the objects
+     * @return object for each ID in the order given, from the first partition holding it, with null for any not
+     * found
+     */
+    @Override
+    protected List<T> findObjects(List<ID> objectIds) {
+        List<CompletableFuture<List<T>>> lookups = new ArrayList<>(partitions.size());
+        for (R repository : partitions.values()) {
+            lookups.add(CompletableFuture.supplyAsync(() -> repository.findMultiple(objectIds), executor));
+        }
+        List<T> objects = new ArrayList<>(Collections.nCopies(objectIds.size(), (T) null));
+        for (CompletableFuture<List<T>> lookup : lookups) {
+            List<T> partitionObjects = join(lookup);
+            for (int i = 0; i < objectIds.size(); i++) {
+                if (objects.get(i) == null) {
+                    objects.set(i, partitionObjects.get(i));
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Partitioned services have no full text index, as each partition's objects would need ranking together
+     * @param fullTextIndex must be null
+     * @throws IllegalArgumentException if an index is given
+     */
+    @Override
+    protected void setFullTextIndex(FullTextIndex<T, ID> fullTextIndex) {
+        Assert.isNull(fullTextIndex, "Partitioned services do not support a full text index");
+        super.setFullTextIndex(null);
+    }
+
+    /**
+     * Gets the repository of the partition the router assigns the object to
+     * @param object object to write
+     * @return repository for the object's partition
+     */
+    @Override
+    protected R getRepository(T object) {
+        return this.getPartition(partitionRouter.getPartition(object));
+    }
+
+    /**
+     * Looks for the object in every partition
+     * @param objectId ID of the object to delete
+     * @return repository of the first partition holding the object, or of the first partition if none does so the
+     * delete fails as it would on a single repository
+     */
+    @Override
+    protected R getRepositoryHolding(ID objectId) {
+        List<CompletableFuture<Boolean>> lookups = new ArrayList<>(partitions.size());
+        for (R repository : partitions.values()) {
+            lookups.add(CompletableFuture.supplyAsync(() -> repository.existsById(objectId), executor));
+        }
+        R holdingRepository = null;
+        Iterator<R> repositories = partitions.values().iterator();
+        for (CompletableFuture<Boolean> lookup : lookups) {
+            R repository = repositories.next();
+            if (join(lookup) && holdingRepository == null) {
+                holdingRepository = repository;
+            }
+        }
+        return holdingRepository != null ? holdingRepository : getFirstPartition(partitions);
+    }
+
+    /**
+     * Merges the matching objects from the partitions that may match
+     * @param searchCriteriaList criteria used to rule out partitions
+     * @param objectSpecification specification to match, or null for all objects
+     * @param sort order in which to return the objects, ending with the ID
+     * @param skip number of merged objects to skip
+     * @param limit maximum number of merged objects to return, or Long.MAX_VALUE for all
+     * @return matching objects
+     */
+    @Override
+    protected List<T> findMatching(List<SearchCriteria> searchCriteriaList, Specification<T> objectSpecification,
+                                   Sort sort, long skip, long limit) {
+        return this.mergeSorted(this.getMatchingPartitions(searchCriteriaList), objectSpecification, sort, skip,
+                limit);
+    }
+
+    /**
+     * @param name name of the partition
+     * @return repository for the partition
+     */
+    protected R getPartition(String name) {
+        R repository = partitions.get(name);
+        Assert.notNull(repository, "Unknown partition " + name);
+        return repository;
+    }
+
+    /**
+     * Merges the sorted objects of each partition, reading each in chunks only as the merge reaches them. The
+     * first chunk of every partition is read in parallel and sized to the partition's even share of the objects
+     * needed, so when matches are spread evenly no further reads are required.
+     * @param repositories partitions to read
+     * @param objectSpecification specification to match, or null for all objects
+     * @param sort sort giving a total order
+     * @param skip number of merged objects to skip
+     * @param limit maximum number of merged objects to return
+     * @return merged objects
+     */
+    private List<T> mergeSorted(List<R> repositories, Specification<T> objectSpecification, Sort sort, long skip,
+                                long limit) {
+        if (repositories.isEmpty()) {
+            return new ArrayList<>();
+        }
+        long needed = limit == Long.MAX_VALUE ? Long.MAX_VALUE : skip + limit;
+        long share = needed / repositories.size() + 1;
+        int chunkSize = (int) Math.max(MINIMUM_CHUNK_SIZE, Math.min(MAXIMUM_CHUNK_SIZE, share));
+
+        List<CompletableFuture<PartitionCursor<T>>> cursors = new ArrayList<>(repositories.size());
+        for (R repository : repositories) {
+            cursors.add(CompletableFuture.supplyAsync(
+                    () -> new PartitionCursor<>(repository, objectSpecification, sort, chunkSize), executor));
+        }
+        Comparator<T> comparator = getComparator(sort, this.getNullOrdering());
+        PriorityQueue<PartitionCursor<T>> queue = new PriorityQueue<>(repositories.size(),
+                (first, second) -> comparator.compare(first.peek(), second.peek()));
+        for (CompletableFuture<PartitionCursor<T>> cursor : cursors) {
+            PartitionCursor<T> partitionCursor = join(cursor);
+            if (partitionCursor.hasNext()) {
+                queue.add(partitionCursor);
+            }
+        }
+
+        List<T> objects = new ArrayList<>((int) Math.min(limit, MAXIMUM_CHUNK_SIZE));
+        long skipped = 0;
+        while (!queue.isEmpty() && objects.size() < limit) {
+            PartitionCursor<T> cursor = queue.poll();
+            T object = cursor.next();
+            if (skipped < skip) {
+                skipped++;
+            } else {
+                objects.add(object);
+            }
+            if (cursor.hasNext()) {
+                queue.add(cursor);
+            }
+        }
+        return objects;
+    }
+
+    private List<R> getMatchingPartitions(List<SearchCriteria> searchCriteriaList) {
+        List<R> repositories = new ArrayList<>(partitions.size());
+        for (Map.Entry<String, R> partition : partitions.entrySet()) {
+            if (partitionPruner.mayMatch(partition.getKey(), searchCriteriaList)) {
+                repositories.add(partition.getValue());
+            }
+        }
+        return repositories;
+    }
+
+    /**
+     * Gets where the partitions' database places nulls, read from each partition once
+     * @return null ordering shared by every partition
+     * @throws IllegalStateException if the partitions order nulls differently, as their lists cannot then be merged
+     */
+    private NullOrdering getNullOrdering() {
+        if (nullOrdering == null) {
+            NullOrdering partitionsNullOrdering = null;
+            for (Map.Entry<String, R> partition : partitions.entrySet()) {
+                NullOrdering partitionNullOrdering = partition.getValue().getNullOrdering();
+                Assert.state(partitionsNullOrdering == null || partitionsNullOrdering == partitionNullOrdering,
+                        "Partition " + partition.getKey() + " orders nulls differently from the others");
+                partitionsNullOrdering = partitionNullOrdering;
+            }
+            nullOrdering = partitionsNullOrdering;
+        }
+        return nullOrdering;
+    }
+
+    /**
+     * Gets the requested sort with the ID added last, if not already sorted on, to break ties
+     * @param parameters query parameters
+     * @return sort giving a total order
+     */
+    private Sort getMergeSort(Map<String, String[]> parameters) {
+        String idName = this.getDefaultSortField().getName();
+        Sort sort = this.getSort(parameters, Sort.Direction.ASC, idName);
+        if (sort.getOrderFor(idName) == null) {
+            sort = sort.and(Sort.by(idName));
+        }
+        return sort;
+    }
+
+    /**
+     * Creates a comparator ordering objects as the database would for the sort, reading each sorted property,
+     * including nested properties, through its getter
+     * @param sort sort to follow
+     * @param nullOrdering where the database places nulls when the sort does not say
+     * @return comparator for the sort
+     */
+    private static <T> Comparator<T> getComparator(Sort sort, NullOrdering nullOrdering) {
+        Comparator<T> comparator = (first, second) -> 0;
+        for (Sort.Order order : sort) {
+            comparator = comparator.thenComparing((first, second) -> compareValues(
+                    PropertyAccessorFactory.forBeanPropertyAccess(first).getPropertyValue(order.getProperty()),
+                    PropertyAccessorFactory.forBeanPropertyAccess(second).getPropertyValue(order.getProperty()),
+                    order, nullOrdering));
+        }
+        return comparator;
+    }
+
+    private static int compareValues(Object first, Object second, Sort.Order order, NullOrdering nullOrdering) {
+        if (first == null || second == null) {
+            if (first == second) {
+                return 0;
+            }
+            boolean nullsFirst = order.getNullHandling() == Sort.NullHandling.NULLS_FIRST
+                    || (order.getNullHandling() == Sort.NullHandling.NATIVE
+                    && nullOrdering.isNullsFirst(order.isDescending()));
+            return (first == null) == nullsFirst ? -1 : 1;
+        }
+        int result;
+        if (order.isIgnoreCase() && first instanceof String && second instanceof String) {
+            result = ((String) first).compareToIgnoreCase((String) second);
+        } else {
+            result = ((Comparable<Object>) first).compareTo(second);
+        }
+        return order.isDescending() ? -result : result;
+    }
+
+    /**
+     * Waits for a partition's result, rethrowing any failure as it was thrown in the partition
+     */
+    private static <X> X join(CompletableFuture<X> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static <R> R getFirstPartition(Map<String, R> partitions) {
+        Assert.notEmpty(partitions, "Partitions must not be empty");
+        return partitions.values().iterator().next();
+    }
+
+    /**
+     * Reads one partition's sorted objects a chunk at a time
+     */
+    private static class PartitionCursor<T> {
+        private final BaseJpaRepository<T, ?> repository;
+        private final Specification<T> objectSpecification;
+        private final Sort sort;
+        private final int chunkSize;
+        private int page;
+        private List<T> chunk;
+        private int position;
+
+        private PartitionCursor(BaseJpaRepository<T, ?> repository, Specification<T> objectSpecification, Sort sort,
+                                int chunkSize) {
+            this.repository = repository;
+            this.objectSpecification = objectSpecification;
+            this.sort = sort;
+            this.chunkSize = chunkSize;
+            this.chunk = repository.findSlice(objectSpecification, PageRequest.of(0, chunkSize, sort));
+        }
+
+        private boolean hasNext() {
+            if (position >= chunk.size() && chunk.size() == chunkSize) {
+                // a full chunk may be followed by more
+                page++;
+                chunk = repository.findSlice(objectSpecification, PageRequest.of(page, chunkSize, sort));
+                position = 0;
+            }
+            return position < chunk.size();
+        }
+
+        private T peek() {
+            return chunk.get(position);
+        }
+
+        private T next() {
+            return chunk.get(position++);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.util.Assert;
+
+import javax.persistence.Parameter;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Creates the value expressions used in specification predicates. While {@link BaseJpaRepositoryImpl} is creating
+ * a query the values are collected under named parameters and bound onto the query afterwards, so every query of
+ * the same shape has the same SQL however its specifications were composed. Creating a parameter anywhere else
+ * fails rather than quietly rendering the value into the SQL; specifications built for a repository not using that
+ * base class must be told to render literals instead.
+ */
+public final class QueryParameters {
+    private static final ThreadLocal<Map<String, Object>> COLLECTED_VALUES = new ThreadLocal<>();
+
+    private QueryParameters() {
+    }
+
+    /**
+     * Creates the expression for a value compared in a predicate
+     * @param criteriaBuilder builder for the criteria query
+     * @param type type of the value
+     * @param name name of the parameter, unique within the query
+     * @param value value to compare
+     * @param <Y> type of the value
+     * @return named parameter expression
+     * @throws IllegalStateException if no query is being created by {@link BaseJpaRepositoryImpl} on this thread
+     */
+    public static <Y> Expression<Y> parameter(CriteriaBuilder criteriaBuilder, Class<Y> type, String name, Y value) {
+        getCollectedValues().put(name, value);
+        return criteriaBuilder.parameter(type, name);
+    }
+
+    /**
+     * Creates a predicate matching an expression against any of a collection of values. A collection parameter is
+     * expanded into one placeholder per value, so the values are padded up to the next power of two by repeating
+     * the last, and collections of similar sizes share the same SQL.
+     * @param criteriaBuilder builder for the criteria query
+     * @param expression expression to match
+     * @param name name of the parameter, unique within the query
+     * @param values values to match
+     * @return "in" predicate against a named collection parameter
+     * @throws IllegalStateException if no query is being created by {@link BaseJpaRepositoryImpl} on this thread
+     */
+    public static Predicate in(CriteriaBuilder criteriaBuilder, Expression<?> expression, String name,
+                               Collection<?> values) {
+        getCollectedValues().put(name, pad(values));
+        return expression.in(criteriaBuilder.parameter(Collection.class, name));
+    }
+
+    private static Collection<?> pad(Collection<?> values) {
+        int paddedSize = Integer.highestOneBit(values.size());
+        if (paddedSize < values.size()) {
+            paddedSize <<= 1;
+        }
+        if (paddedSize == values.size()) {
+            return values;
+        }
+        List<Object> paddedValues = new ArrayList<>(paddedSize);
+        paddedValues.addAll(values);
+        Object lastValue = paddedValues.get(paddedValues.size() - 1);
+        while (paddedValues.size() < paddedSize) {
+            paddedValues.add(lastValue);
+        }
+        return paddedValues;
+    }
+
+    private static Map<String, Object> getCollectedValues() {
+        Map<String, Object> values = COLLECTED_VALUES.get();
+        if (values == null) {
+            throw new IllegalStateException("Query parameters can only be created while a repository based on "
+                    + "BaseJpaRepositoryImpl creates a query");
+        }
+        return values;
+    }
+
+    /**
+     * Creates a query, collecting the values of any parameters created meanwhile on this thread
+     * @param values map to which to add the values, keyed by parameter name
+     * @param creator creates the query
+     * @param <X> type of the query
+     * @return the created query
+     */
+    static <X> X collect(Map<String, Object> values, Supplier<X> creator) {
+        Assert.notNull(values, "values must not be null");
+        Map<String, Object> previousValues = COLLECTED_VALUES.get();
+        COLLECTED_VALUES.set(values);
+        try {
+            return creator.get();
+        } finally {
+            if (previousValues == null) {
+                COLLECTED_VALUES.remove();
+            } else {
+                COLLECTED_VALUES.set(previousValues);
+            }
+        }
+    }
+
+    /**
+     * Binds collected values onto each named parameter present in the query
+     * @param query query created while collecting the values
+     * @param values collected values keyed by parameter name
+     * @param <X> query result type
+     * @return the same query with its parameters bound
+     */
+    static <X> TypedQuery<X> bind(TypedQuery<X> query, Map<String, Object> values) {
+        if (values.isEmpty()) {
+            return query;
+        }
+        for (Parameter<?> parameter : query.getParameters()) {
+            String name = parameter.getName();
+            if (name != null && values.containsKey(name)) {
+                query.setParameter(name, values.get(name));
+            }
+        }
+        return query;
+    }
+}
@@ -3,71 +3,70 @@ package com.codehedgehog.strawberry;
 import com.codehedgehog.strawberry.exceptions.BadRequestException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
-import org.springframework.util.StringUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
 
 import javax.persistence.EmbeddedId;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
+import javax.persistence.Version;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
-import java.sql.Time;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Jon on 1/19/2019.
  */
 public class RestfulService<R extends BaseJpaRepository<T, ID>, T, ID extends Serializable> {
 
-    private static final List<String> NON_FILTER_ACTIONS =
-            Collections.unmodifiableList(Arrays.asList("sort", "include", "count", "start"));
-    private static final List<String> FILTER_ACTIONS =
-            Collections.unmodifiableList(Arrays.asList(
-                    "equals", "before", "less", "after", "greater", "like", "starts"," ends", "not", "null"));
-    private static final List<String> NON_PREDICATE_TERMS =
-            Collections.unmodifiableList(Arrays.asList("least", "greatest", "min", "max"));
-
-    private static final List<SearchOperation> VALID_BOOLEAN_OPERATORS =
-            Collections.unmodifiableList(Arrays.asList(SearchOperation.EQUALS, SearchOperation.NOT_EQUAL,
-                    SearchOperation.NULL, SearchOperation.NOT_NULL));
-    private static final List<SearchOperation> VALID_STRING_OPERATORS =
-            Collections.unmodifiableList(Arrays.asList(SearchOperation.EQUALS, SearchOperation.NOT_EQUAL,
-                    SearchOperation.NULL, SearchOperation.NOT_NULL, SearchOperation.ENDS, SearchOperation.STARTS,
-                    SearchOperation.LIKE));
-    private static final List<SearchOperation> VALID_ENUM_OPERATORS =
-            Collections.unmodifiableList(Arrays.asList(SearchOperation.EQUALS, SearchOperation.NOT_EQUAL,
-                    SearchOperation.NULL, SearchOperation.NOT_NULL, SearchOperation.ENDS, SearchOperation.STARTS,
-                    SearchOperation.LIKE));
-    private static final List<SearchOperation> VALID_NUMERIC_OPERATORS =
-            Collections.unmodifiableList(Arrays.asList(SearchOperation.EQUALS, SearchOperation.NOT_EQUAL,
-                    SearchOperation.NULL, SearchOperation.NOT_NULL, SearchOperation.ENDS, SearchOperation.STARTS,
-                    SearchOperation.LIKE, SearchOperation.GREATER_THAN, SearchOperation.LESS_THAN,
-                    SearchOperation.GREATEST, SearchOperation.LEAST));
-    private static final List<SearchOperation> VALID_DATE_OPERATORS =
-            Collections.unmodifiableList(Arrays.asList(SearchOperation.EQUALS, SearchOperation.NOT_EQUAL,
-                    SearchOperation.NULL, SearchOperation.NOT_NULL, SearchOperation.GREATER_THAN,
-                    SearchOperation.LESS_THAN, SearchOperation.GREATEST, SearchOperation.LEAST));
-    private static final List<SearchOperation> VALID_CHARACTER_OPERATORS =
-            Collections.unmodifiableList(Arrays.asList(SearchOperation.EQUALS, SearchOperation.NOT_EQUAL,
-                    SearchOperation.NULL, SearchOperation.NOT_NULL));
+    private static final String CHANGED_SINCE_PARAMETER = "changed_since";
+    private static final String SEARCH_PARAMETER = "search";
+    private static final String SEARCH_IDS_PARAMETER = "search_ids";
+    private static final int MAX_SEARCH_RESULTS = 1000;
+    private static final int INDEX_REBUILD_PAGE_SIZE = 1000;
+    private static final String TOTAL_PARAMETER = "total";
+    private static final long EXACT_COUNT_LIMIT = 10000;
+    private static final long COUNT_CACHE_TIME_TO_LIVE = TimeUnit.MINUTES.toNanos(1);
+    private static final int COUNT_CACHE_MAXIMUM_SIZE = 1000;
+    private static final long DEFAULT_CHANGE_SAFETY_LAG = TimeUnit.SECONDS.toMillis(5);
 
     private final Logger log = LoggerFactory.getLogger(RestfulService.class);
 
     protected R baseJpaRepository;
 
     private   Class<T>                 classType;
+    private   SearchParameterParser<T> searchParameterParser;
+    private   Field                    changeTrackingField;
+    private   TombstoneStore<ID>       tombstoneStore;
+    private   long                     changeSafetyLag = DEFAULT_CHANGE_SAFETY_LAG;
+    private   EntityCache<ID, T>       entityCache;
+    private   FullTextIndex<T, ID>     fullTextIndex;
+    private   boolean                  bindValues;
+    private final Map<String, CachedCount> countCache = new ConcurrentHashMap<>();
 
     public RestfulService(R baseJpaRepository) {
         this.baseJpaRepository = baseJpaRepository;
+        this.bindValues = BaseJpaRepositoryImpl.getImplementation(baseJpaRepository) != null;
+        if (!this.bindValues) {
+            log.warn("Repository for {} was not created with BaseJpaRepositoryImpl as its base class, so filter values "
+                    + "are rendered into the SQL as literals rather than bound as parameters",
+                    getClass().getSimpleName());
+        }
         this.classType = ((Class<T>) ((ParameterizedType) getClass()
-                .getGenericSuperclass()).getActualTypeArguments()[0]);
+                .getGenericSuperclass()).getActualTypeArguments()[1]);
+        this.searchParameterParser = new SearchParameterParser<>(this.classType);
+        this.changeTrackingField = this.getChangeTrackingField().orElse(null);
+        this.tombstoneStore = new InMemoryTombstoneStore<>();
     }
 
     protected List<T> getObjects(Map<String, String[]> parameters) {
@@ -76,6 +75,10 @@ public class RestfulService<R extends BaseJpaRepository<T, ID>, T, ID extends Se
         Sort sort = this.getSort(parameters, Sort.Direction.ASC, idField.getName());
         PageRequest pageRequest = this.getPageRequest(parameters, sort);
         List<SearchCriteria> searchCriteriaList = this.getSearchCriteria(parameters);
+        if (parameters.containsKey(SEARCH_PARAMETER)) {
+            return this.searchObjects(this.searchRankedIds(parameters.get(SEARCH_PARAMETER)[0]), searchCriteriaList,
+                    pageRequest);
+        }
         if (searchCriteriaList.isEmpty()) {
             if (pageRequest != null) {
                 Page pagedObjects = this.baseJpaRepository.findAll(pageRequest);
@@ -84,7 +87,7 @@ public class RestfulService<R extends BaseJpaRepository<T, ID>, T, ID extends Se
                 objects = this.baseJpaRepository.findAll(sort);
             }
         } else {
-            Specification<T> objectSpecification = new SpecificationBuilder<T>().with(searchCriteriaList).build();
+            Specification<T> objectSpecification = this.getSpecification(searchCriteriaList);
             if (pageRequest != null) {
                 Page pagedObjects = this.baseJpaRepository.findAll(objectSpecification, pageRequest);
                 objects = pagedObjects.getContent();
@@ -95,16 +98,417 @@ public class RestfulService<R extends BaseJpaRepository<T, ID>, T, ID extends Se
         return objects;
     }
 
+    /**
+     * Gets a page of objects as {@link #getObjects(Map)} does, along with the total number of objects matching.
+     * The total is counted exactly unless the parameters include "total=estimate", in which case it is counted
+     * only when no more than 10,000 objects match - remembering the count for a minute - and otherwise estimated
+     * by the repository without a full count.
+     * @param parameters query parameters
+     * @return objects on the page and the total matching
+     */
+    protected ObjectPage<T> getObjectPage(Map<String, String[]> parameters) {
+        Sort sort = this.getSort(parameters, Sort.Direction.ASC, this.getDefaultSortField().getName());
+        PageRequest pageRequest = this.getPageRequest(parameters, sort);
+        List<SearchCriteria> searchCriteriaList = this.getSearchCriteria(parameters);
+        if (parameters.containsKey(SEARCH_PARAMETER)) {
+            List<ID> rankedIds = this.searchRankedIds(parameters.get(SEARCH_PARAMETER)[0]);
+            List<T> rankedObjects = this.searchObjects(rankedIds, searchCriteriaList, null);
+            // when the search was cut off at its limit, more objects may match than were ranked
+            return new ObjectPage<>(this.getPage(rankedObjects, pageRequest), rankedObjects.size(),
+                    rankedIds.size() < MAX_SEARCH_RESULTS);
+        }
+        Specification<T> objectSpecification = null;
+        if (!searchCriteriaList.isEmpty()) {
+            objectSpecification = this.getSpecification(searchCriteriaList);
+        }
+        if (pageRequest == null) {
+            List<T> objects = objectSpecification == null ? this.baseJpaRepository.findAll(sort)
+                    : this.baseJpaRepository.findAll(objectSpecification, sort);
+            return new ObjectPage<>(objects, objects.size(), true);
+        }
+        if (!parameters.containsKey(TOTAL_PARAMETER)
+                || !"estimate".equalsIgnoreCase(parameters.get(TOTAL_PARAMETER)[0])) {
+            Page<T> page = this.baseJpaRepository.findAll(objectSpecification, pageRequest);
+            return new ObjectPage<>(page.getContent(), page.getTotalElements(), true);
+        }
+
+        List<T> objects = this.baseJpaRepository.findSlice(objectSpecification, pageRequest);
+        if (!objects.isEmpty() && objects.size() < pageRequest.getPageSize()) {
+            // the last page gives the total away
+            return new ObjectPage<>(objects, pageRequest.getOffset() + objects.size(), true);
+        }
+        String countKey = this.getCountKey(searchCriteriaList);
+        CachedCount cachedCount = this.countCache.get(countKey);
+        if (cachedCount != null && cachedCount.expiresAt - System.nanoTime() > 0) {
+            return new ObjectPage<>(objects, cachedCount.count, true);
+        }
+        long count = this.baseJpaRepository.countUpTo(objectSpecification, EXACT_COUNT_LIMIT);
+        if (count <= EXACT_COUNT_LIMIT) {
+            if (this.countCache.size() >= COUNT_CACHE_MAXIMUM_SIZE) {
+                this.countCache.clear();
+            }
+            this.countCache.put(countKey, new CachedCount(count, System.nanoTime() + COUNT_CACHE_TIME_TO_LIVE));
+            return new ObjectPage<>(objects, count, true);
+        }
+        long estimate = Math.max(this.baseJpaRepository.estimateCount(objectSpecification), count);
+        return new ObjectPage<>(objects, Math.max(estimate, pageRequest.getOffset() + objects.size()), false);
+    }
+
+    /**
+     * Gets the objects created or modified at or after the "changedSince" token in the parameters, along with the
+     * IDs of those deleted through this service. With no token, every matching object is returned. Any "filter"
+     * parameters are applied to the changed objects; deleted IDs are reported regardless as their rows no longer
+     * exist. The next token is the time of this read less the change safety lag, so changes made within the lag
+     * before the read, and changes committed up to the lag after their change time, are reported again by the next
+     * feed; consumers should apply changes by ID so that repeats are harmless. With a "count" parameter at most that
+     * many objects are returned; when more remain, the feed says so and its token continues straight after the last
+     * object returned, unless that object changed within the lag, in which case the token falls back as usual.
+     * Deletions are then only reported up to the time of the token, and the rest with the next feed.
+     * @param parameters query parameters, including an optional "changedSince" token and "count" limit
+     * @return changes since the token and the token from which to continue
+     */
+    protected ChangeFeed<T, ID> getChanges(Map<String, String[]> parameters) {
+        if (this.changeTrackingField == null) {
+            throw new BadRequestException("Changes are not tracked for " + this.classType.getSimpleName());
+        }
+        Long changedSince = null;
+        long skip = 0;
+        if (parameters.containsKey("changedSince")) {
+            changedSince = ChangeToken.decode(parameters.get("changedSince")[0]);
+            skip = ChangeToken.decodeSkip(parameters.get("changedSince")[0]);
+        }
+        Integer limit = this.getPaginationParameters(parameters).get("count");
+        if (limit != null && limit <= 0) {
+            throw new BadRequestException("Count must be greater than zero");
+        }
+        // taken before reading, so anything committed after the read is at or after the next token
+        long readTime = System.currentTimeMillis();
+        String fieldName = this.changeTrackingField.getName();
+        Sort sort = Sort.by(Sort.Direction.ASC, fieldName).and(Sort.by(this.getDefaultSortField().getName()));
+        Specification<T> objectSpecification = null;
+        List<SearchCriteria> searchCriteriaList = this.getSearchCriteria(parameters);
+        if (!searchCriteriaList.isEmpty()) {
+            objectSpecification = this.getSpecification(searchCriteriaList);
+        }
+        if (changedSince != null) {
+            Specification<T> changedSinceSpecification = this.getChangedSinceSpecification(changedSince);
+            objectSpecification = objectSpecification == null
+                    ? changedSinceSpecification : objectSpecification.and(changedSinceSpecification);
+        }
+        // the objects changed since the token start with those changed at exactly its time, so skipping the first
+        // of them resumes after a limited feed; one more than the limit is read to tell whether any remain
+        List<T> changedObjects = this.findMatching(searchCriteriaList, objectSpecification, sort, skip,
+                limit == null ? Long.MAX_VALUE : limit + 1L);
+        boolean moreChanges = limit != null && changedObjects.size() > limit;
+        long nextChange = readTime - this.changeSafetyLag;
+        long nextSkip = 0;
+        if (moreChanges) {
+            changedObjects = new ArrayList<>(changedObjects.subList(0, limit));
+            long lastChange = this.getChangeTime(changedObjects.get(limit - 1));
+            if (lastChange <= nextChange) {
+                nextChange = lastChange;
+                for (int i = limit - 1; i >= 0 && this.getChangeTime(changedObjects.get(i)) == lastChange; i--) {
+                    nextSkip++;
+                }
+                if (changedSince != null && lastChange == changedSince) {
+                    nextSkip += skip;
+                }
+            }
+        }
+        List<ID> deletedIds = new ArrayList<>();
+        boolean resyncRequired = false;
+        if (changedSince != null) {
+            resyncRequired = !this.tombstoneStore.isRetainedSince(changedSince);
+            for (Map.Entry<ID, Long> tombstone : this.tombstoneStore.getDeletedSince(changedSince).entrySet()) {
+                if (!moreChanges || tombstone.getValue() < nextChange) {
+                    deletedIds.add(tombstone.getKey());
+                }
+            }
+            if (nextChange < changedSince) {
+                nextChange = changedSince;
+                nextSkip = 0;
+            }
+        }
+        return new ChangeFeed<>(changedObjects, deletedIds, ChangeToken.encode(nextChange, nextSkip),
+                resyncRequired, moreChanges);
+    }
+
     protected T getObject(ID objectId) {
+        if (this.entityCache == null) {
+            return this.findObject(objectId);
+        }
+        T object = this.entityCache.get(objectId);
+        if (object == null) {
+            long generation = this.entityCache.getGeneration(objectId);
+            // the cache's copy is returned rather than the loaded entity, so hits and misses alike are detached
+            object = this.entityCache.put(objectId, this.findObject(objectId), generation);
+        }
+        return object;
+    }
+
+    protected MultiGetResult<T, ID> getObjects(Collection<ID> objectIds) {
+        List<ID> ids = new ArrayList<>(objectIds);
+        List<T> foundObjects = new ArrayList<>(Collections.nCopies(ids.size(), (T) null));
+        List<ID> uncachedIds = ids;
+        long[] generations = new long[ids.size()];
+        if (this.entityCache != null) {
+            uncachedIds = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i++) {
+                foundObjects.set(i, this.entityCache.get(ids.get(i)));
+                if (foundObjects.get(i) == null) {
+                    generations[i] = this.entityCache.getGeneration(ids.get(i));
+                    uncachedIds.add(ids.get(i));
+                }
+            }
+        }
+        if (!uncachedIds.isEmpty()) {
+            Iterator<T> loadedObjects = this.findObjects(uncachedIds).iterator();
+            for (int i = 0; i < ids.size(); i++) {
+                if (foundObjects.get(i) == null) {
+                    T loadedObject = loadedObjects.next();
+                    foundObjects.set(i, this.entityCache == null
+                            ? loadedObject : this.entityCache.put(ids.get(i), loadedObject, generations[i]));
+                }
+            }
+        }
+        List<T> objects = new ArrayList<>(ids.size());
+        List<ID> missingIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (foundObjects.get(i) != null) {
+                objects.add(foundObjects.get(i));
+            } else {
+                missingIds.add(ids.get(i));
+            }
+        }
+        return new MultiGetResult<>(objects, missingIds);
+    }
+
+    /**
+     * Reads an object by ID from the repository, behind the entity cache if there is one
+     * @param objectId ID of the object
+     * @return object, or null if there is none
+     */
+    protected T findObject(ID objectId) {
         return this.baseJpaRepository.findOne(objectId);
     }
 
+    /**
+     * Reads objects by ID from the repository, behind the entity cache if there is one
+     * @param objectIds IDs of the objects
+     * @return object for each ID in the order given, with null for any not found
+     */
+    protected List<T> findObjects(List<ID> objectIds) {
+        return this.baseJpaRepository.findMultiple(objectIds);
+    }
+
     protected T saveObject(T object) {
-        return this.baseJpaRepository.save(object);
+        T savedObject = this.getRepository(object).save(object);
+        this.evictFromEntityCache(savedObject);
+        this.countCache.clear();
+        if (this.fullTextIndex != null) {
+            FullTextIndex<T, ID> index = this.fullTextIndex;
+            this.runAfterCommit(() -> index.index(savedObject));
+        }
+        return savedObject;
+    }
+
+    /**
+     * Inserts or updates many objects at once by their IDs, bypassing the per-object existence check of
+     * {@link #saveObject(Object)}. When not called within an existing transaction, every commitInterval objects
+     * are committed in their own transaction. Each batch of objects is added to any full text index once committed,
+     * so within an existing transaction the objects are held until it commits.
+     * @param objects objects to upsert - each must have its ID set
+     * @param batchSize maximum number of rows in a single JDBC batch
+     * @param commitInterval maximum number of objects upserted in a single transaction
+     * @return counts of objects inserted and updated
+     */
+    protected UpsertResult upsertObjects(Iterable<T> objects, int batchSize, int commitInterval) {
+        Assert.isTrue(commitInterval > 0, "Commit interval must be greater than zero");
+        UpsertResult result = new UpsertResult(0, 0);
+        List<T> uncommittedObjects = new ArrayList<>(Math.min(commitInterval, 10000));
+        for (T object : objects) {
+            uncommittedObjects.add(object);
+            if (uncommittedObjects.size() >= commitInterval) {
+                result = result.add(this.upsertBatch(uncommittedObjects, batchSize));
+                uncommittedObjects.clear();
+            }
+        }
+        if (!uncommittedObjects.isEmpty()) {
+            result = result.add(this.upsertBatch(uncommittedObjects, batchSize));
+        }
+        if (this.entityCache != null) {
+            this.evictNowAndAfterCompletion(this.entityCache::evictAll);
+        }
+        this.countCache.clear();
+        return result;
+    }
+
+    /**
+     * Upserts one commit interval's objects and, once they are committed, adds them to any full text index
+     * @param objects objects to upsert
+     * @param batchSize maximum number of rows in a single JDBC batch
+     * @return counts of objects inserted and updated
+     */
+    private UpsertResult upsertBatch(List<T> objects, int batchSize) {
+        Map<R, List<T>> objectsByRepository = new IdentityHashMap<>();
+        for (T object : objects) {
+            objectsByRepository.computeIfAbsent(this.getRepository(object), repository -> new ArrayList<>())
+                    .add(object);
+        }
+        UpsertResult result = new UpsertResult(0, 0);
+        for (Map.Entry<R, List<T>> repositoryObjects : objectsByRepository.entrySet()) {
+            result = result.add(repositoryObjects.getKey().upsertAll(repositoryObjects.getValue(), batchSize));
+        }
+        if (this.fullTextIndex != null) {
+            FullTextIndex<T, ID> index = this.fullTextIndex;
+            List<T> committedObjects = new ArrayList<>(objects);
+            this.runAfterCommit(() -> committedObjects.forEach(index::index));
+        }
+        return result;
     }
 
     protected void deleteObject(ID objectId) {
-        this.baseJpaRepository.deleteById(objectId);
+        this.getRepositoryHolding(objectId).deleteById(objectId);
+        this.countCache.clear();
+        if (this.entityCache != null) {
+            this.evictNowAndAfterCompletion(() -> this.entityCache.evict(objectId));
+        }
+        if (this.fullTextIndex != null) {
+            FullTextIndex<T, ID> index = this.fullTextIndex;
+            this.runAfterCommit(() -> index.remove(objectId));
+        }
+        if (this.changeTrackingField != null) {
+            // timed at commit, as the deletion is not visible to change feeds reading before then
+            TombstoneStore<ID> store = this.tombstoneStore;
+            this.runAfterCommit(() -> store.record(objectId, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Gets the repository to which an object is saved or upserted
+     * @param object object to write
+     * @return the service's repository, unless overridden by services spanning several repositories
+     */
+    protected R getRepository(T object) {
+        return this.baseJpaRepository;
+    }
+
+    /**
+     * Gets the repository from which an object is deleted
+     * @param objectId ID of the object to delete
+     * @return the service's repository, unless overridden by services spanning several repositories
+     */
+    protected R getRepositoryHolding(ID objectId) {
+        return this.baseJpaRepository;
+    }
+
+    /**
+     * Finds the objects matching the search criteria, in sort order
+     * @param searchCriteriaList criteria from which the specification was built
+     * @param objectSpecification specification to match, or null for all objects
+     * @param sort order in which to return the objects
+     * @param skip number of matching objects to skip
+     * @param limit maximum number of objects to return, or Long.MAX_VALUE for all
+     * @return matching objects
+     */
+    protected List<T> findMatching(List<SearchCriteria> searchCriteriaList, Specification<T> objectSpecification,
+                                   Sort sort, long skip, long limit) {
+        if (skip == 0 && limit == Long.MAX_VALUE) {
+            return objectSpecification == null ? this.baseJpaRepository.findAll(sort)
+                    : this.baseJpaRepository.findAll(objectSpecification, sort);
+        }
+        int size = (int) Math.min(limit, Integer.MAX_VALUE);
+        return this.baseJpaRepository.findSlice(objectSpecification, new OffsetPageRequest(skip, size, sort));
+    }
+
+    /**
+     * Replaces the store recording deletions for change feeds, i.e. with one shared between instances
+     * @param tombstoneStore store to use
+     */
+    protected void setTombstoneStore(TombstoneStore<ID> tombstoneStore) {
+        Assert.notNull(tombstoneStore, "Tombstone store must not be null");
+        this.tombstoneStore = tombstoneStore;
+    }
+
+    /**
+     * Sets how far behind the time of a change feed read its next token is placed. Changes whose transaction
+     * commits later than this after their change time are missed by change feeds, so the lag must be longer than
+     * the longest transaction writing change-tracked objects, including upserts over their commit interval.
+     * @param changeSafetyLag lag in milliseconds
+     */
+    protected void setChangeSafetyLag(long changeSafetyLag) {
+        Assert.isTrue(changeSafetyLag >= 0, "Change safety lag must not be negative");
+        this.changeSafetyLag = changeSafetyLag;
+    }
+
+    /**
+     * Places a read-through cache in front of the repository for lookups by ID. Saves and deletes made through
+     * this service evict the entries they affect. Objects read by ID are then always copies from the cache, detached
+     * from any persistence context, whether or not they were cached already. Leave unset for entities that change
+     * often.
+     * @param entityCache cache to use, or null to read from the repository every time
+     */
+    protected void setEntityCache(EntityCache<ID, T> entityCache) {
+        this.entityCache = entityCache;
+    }
+
+    /**
+     * Answers "like", "starts" and "ends" filters on the entity's @Searchable fields from a full text index, and
+     * enables "search" requests. Call {@link #rebuildFullTextIndex()} to fill a new index from the repository.
+     * @param fullTextIndex index to use, or null to filter in the database only
+     */
+    protected void setFullTextIndex(FullTextIndex<T, ID> fullTextIndex) {
+        this.fullTextIndex = fullTextIndex;
+    }
+
+    /**
+     * Rebuilds the full text index unless it already holds every object, as when loaded from a file saved by a
+     * previous run. The index is stale if it was never filled, if it holds a different number of objects than the
+     * repository, or if any object changed after the index was last complete, as told by the change tracking field.
+     * Without a change tracking field changes cannot be told apart, so the index is always rebuilt.
+     * @return true if the index was rebuilt
+     */
+    protected boolean rebuildFullTextIndexIfStale() {
+        Assert.state(this.fullTextIndex != null, "No full text index has been set");
+        long completeUpTo = this.fullTextIndex.getCompleteUpTo();
+        int entityCount = this.fullTextIndex.getEntityCount();
+        boolean stale = completeUpTo < 0 || this.changeTrackingField == null
+                || (entityCount >= 0 && entityCount != this.baseJpaRepository.count())
+                || this.baseJpaRepository.countUpTo(this.getChangedSinceSpecification(completeUpTo + 1), 0) > 0;
+        if (stale) {
+            log.info("Full text index for {} is stale - rebuilding", this.classType.getSimpleName());
+            this.rebuildFullTextIndex();
+        }
+        return stale;
+    }
+
+    /**
+     * Rebuilds the full text index from every object in the repository, read a page at a time
+     */
+    protected void rebuildFullTextIndex() {
+        Assert.state(this.fullTextIndex != null, "No full text index has been set");
+        Sort sort = Sort.by(this.getDefaultSortField().getName());
+        this.fullTextIndex.rebuild(() -> new Iterator<T>() {
+            private Page<T> page = baseJpaRepository.findAll(PageRequest.of(0, INDEX_REBUILD_PAGE_SIZE, sort));
+            private Iterator<T> pageObjects = page.iterator();
+
+            @Override
+            public boolean hasNext() {
+                if (!pageObjects.hasNext() && page.hasNext()) {
+                    page = baseJpaRepository.findAll(page.nextPageable());
+                    pageObjects = page.iterator();
+                }
+                return pageObjects.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return pageObjects.next();
+            }
+        });
     }
 
     protected Sort getSort(Map<String, String[]> parameters, Sort.Direction defaultDirection, String defaultParameter) {
@@ -137,35 +541,122 @@ public class RestfulService<R extends BaseJpaRepository<T, ID>, T, ID extends Se
     }
 
     protected List<SearchCriteria> getSearchCriteria(Map<String, String[]> parameters) {
-        Map<String, SearchCriteria> searchCriteriaMap = new HashMap<>();
-        for (String key : parameters.keySet()) {
-            log.debug("Parameter {} with values: {}", key, String.join(", ", parameters.get(key)));
-            String[] separatedKey = key.split("\\.");
+        return this.searchParameterParser.parse(parameters);
+    }
 
-            if (separatedKey.length <= 1) {
-                // Enforce keys use reserved words or non-predicate keys only - ignore all others
-                continue;
-            }
-            String actionSpecifier = this.getActionSpecifier(separatedKey[1]);
-            boolean isNonPredicateKey = this.isNonPredicateKey(actionSpecifier);
-
-            String fieldName = "";
-            String specifiedOperation = "";
-            if (!isNonPredicateKey) {
-                Map<String, String> fieldAndOperation = this.decipherAndValidateFieldNameAndSpecifiedOperation(separatedKey);
-                fieldName = fieldAndOperation.get("fieldName");
-                specifiedOperation = fieldAndOperation.get("specifiedOperation");
+    /**
+     * Builds the specification matching objects changed at or after a time
+     * @param changedSince time in milliseconds since the epoch
+     * @return specification on the change tracking field
+     */
+    private Specification<T> getChangedSinceSpecification(long changedSince) {
+        String fieldName = this.changeTrackingField.getName();
+        Comparable changedSinceValue = (Comparable) ChangeToken.fromMillis(this.changeTrackingField.getType(),
+                changedSince);
+        Class<Comparable> changedSinceType = (Class<Comparable>) changedSinceValue.getClass();
+        boolean bindValues = this.bindValues;
+        return (root, query, criteriaBuilder) ->
+                criteriaBuilder.greaterThanOrEqualTo(root.get(fieldName), bindValues
+                        ? QueryParameters.parameter(criteriaBuilder, changedSinceType, CHANGED_SINCE_PARAMETER,
+                                changedSinceValue)
+                        : criteriaBuilder.literal(changedSinceValue));
+    }
+
+    /**
+     * Builds the specification for search criteria, binding their values as parameters unless the repository was
+     * not created with {@link BaseJpaRepositoryImpl} as its base class
+     * @param searchCriteriaList search criteria
+     * @return specification matching all of the criteria, or null if there are none
+     */
+    protected Specification<T> getSpecification(List<SearchCriteria> searchCriteriaList) {
+        if (searchCriteriaList.isEmpty()) {
+            return null;
+        }
+        return new SpecificationBuilder<>(this.classType, this.fullTextIndex, this.bindValues)
+                .with(searchCriteriaList).build();
+    }
+
+    /**
+     * Gets the IDs of the objects best matching the text in the full text index, most relevant first
+     * @param text text to search for
+     * @return IDs of at most 1,000 matching objects
+     */
+    private List<ID> searchRankedIds(String text) {
+        if (this.fullTextIndex == null) {
+            throw new BadRequestException("Search is not supported for " + this.classType.getSimpleName());
+        }
+        return this.fullTextIndex.search(text, MAX_SEARCH_RESULTS);
+    }
+
+    /**
+     * Gets the objects with the ranked IDs, keeping only those that also match any filters. Sorting is by
+     * relevance regardless of any "sort" parameter.
+     * @param rankedIds IDs of the objects best matching a search, most relevant first
+     * @param searchCriteriaList filters the objects must also match
+     * @param pageRequest page of the ranked objects to return, or null for all
+     * @return matching objects in order of relevance
+     */
+    private List<T> searchObjects(List<ID> rankedIds, List<SearchCriteria> searchCriteriaList,
+                                  PageRequest pageRequest) {
+        if (rankedIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<T> rankedObjects = new ArrayList<>(rankedIds.size());
+        if (searchCriteriaList.isEmpty()) {
+            // page through the ranked IDs before loading so only the page's objects are read
+            for (T object : this.baseJpaRepository.findMultiple(this.getPage(rankedIds, pageRequest))) {
+                if (object != null) {
+                    rankedObjects.add(object);
+                }
             }
-            if (this.isNonFilterAction(actionSpecifier) || (!isNonPredicateKey && StringUtils.isEmpty(fieldName))) {
-                // non-filter actions are handled elsewhere - skip them here
-                // if the field is empty & key a predicate key, field does not exist on the entity so ignore it
-                continue;
+            return rankedObjects;
+        }
+        String idAttribute = this.fullTextIndex.getIdAttribute();
+        Specification<T> objectSpecification = this.getSpecification(searchCriteriaList)
+                .and((root, query, criteriaBuilder) -> this.bindValues
+                        ? QueryParameters.in(criteriaBuilder, root.get(idAttribute), SEARCH_IDS_PARAMETER, rankedIds)
+                        : root.get(idAttribute).in(rankedIds));
+        Field idField = this.getEntityIdField().orElseThrow(IllegalStateException::new);
+        ReflectionUtils.makeAccessible(idField);
+        Map<Object, T> matchedObjects = new HashMap<>();
+        for (T object : this.baseJpaRepository.findAll(objectSpecification)) {
+            matchedObjects.put(ReflectionUtils.getField(idField, object), object);
+        }
+        for (ID id : rankedIds) {
+            T object = matchedObjects.get(id);
+            if (object != null) {
+                rankedObjects.add(object);
             }
+        }
+        return this.getPage(rankedObjects, pageRequest);
+    }
 
-            this.createOperationForEachParameterValue(parameters, searchCriteriaMap, key, actionSpecifier, isNonPredicateKey, fieldName, specifiedOperation);
+    /**
+     * Gets the key under which to cache the count for the search criteria, the same for any order of criteria
+     * @param searchCriteriaList search criteria
+     * @return cache key
+     */
+    private String getCountKey(List<SearchCriteria> searchCriteriaList) {
+        List<SearchCriteria> sortedCriteria = new ArrayList<>(searchCriteriaList);
+        sortedCriteria.sort(Comparator.comparing(SearchCriteria::getKey));
+        StringBuilder countKey = new StringBuilder();
+        for (SearchCriteria searchCriteria : sortedCriteria) {
+            countKey.append(searchCriteria.getKey());
+            for (int i = 0; i < searchCriteria.getOperationCount(); i++) {
+                countKey.append('.').append(searchCriteria.getOperation(i)).append('=')
+                        .append(searchCriteria.getValue(i));
+            }
+            countKey.append('&');
         }
+        return countKey.toString();
+    }
 
-        return new ArrayList<>(searchCriteriaMap.values());
+    private <E> List<E> getPage(List<E> list, PageRequest pageRequest) {
+        if (pageRequest == null) {
+            return list;
+        }
+        int start = (int) Math.min(pageRequest.getOffset(), list.size());
+        return list.subList(start, Math.min(start + pageRequest.getPageSize(), list.size()));
     }
 
     protected PageRequest getPageRequest(Map<String, String[]> parameters, Sort sort) {
@@ -186,62 +677,65 @@ public class RestfulService<R extends BaseJpaRepository<T, ID>, T, ID extends Se
         }
     }
 
-    private void createOperationForEachParameterValue(Map<String, String[]> parameters, Map<String,
-            SearchCriteria> searchCriteriaMap, String key, String actionSpecifier, boolean isNonPredicateKey,
-                                                      String fieldName, String specifiedOperation) {
-        for (String value : parameters.get(key)) {
-            if (isNonPredicateKey) {
-                SearchOperation searchOperation = this.getSearchOperation(actionSpecifier, value);
-                this.validateSearchOperationOnParameterType(searchOperation, EntityTraversalUtility.getDeepestFieldOnObject(this.classType, value));
-                if (searchCriteriaMap.containsKey(searchOperation.name())) {
-                    searchCriteriaMap.get(searchOperation.name()).addOperationValueEntry(searchOperation, value);
-                } else {
-                    searchCriteriaMap.put(searchOperation.name(), new SearchCriteria(actionSpecifier, searchOperation, value));
-                }
-            } else {
-                SearchOperation searchOperation = this.getSearchOperation(specifiedOperation, value);
-                this.validateSearchOperationOnParameterType(searchOperation, EntityTraversalUtility.getDeepestFieldOnObject(this.classType, fieldName));
-                if (searchCriteriaMap.containsKey(searchOperation.name())) {
-                    searchCriteriaMap.get(searchOperation.name()).addOperationValueEntry(searchOperation, value);
-                } else {
-                    searchCriteriaMap.put(searchOperation.name(), new SearchCriteria(fieldName, searchOperation, value));
-                }
-            }
-        }
+    protected Class<T> getClassType() {
+        return this.classType;
     }
 
-    private Map<String, String> decipherAndValidateFieldNameAndSpecifiedOperation(String[] separatedKey) {
-        String fieldName = "";
-        String specifiedOperation = "";
-        if (separatedKey.length == 2) {
-            if (EntityTraversalUtility.isFieldOnObject(this.classType, separatedKey[1])) {
-                fieldName = separatedKey[1];
-            }
+    protected Field getDefaultSortField() {
+        return this.getEntityIdField().orElse(this.classType.getDeclaredFields()[0]);
+    }
+
+    /**
+     * Evicts a saved object from the entity cache, clearing the whole cache if its ID can't be read directly
+     * @param savedObject saved object
+     */
+    private void evictFromEntityCache(T savedObject) {
+        if (this.entityCache == null) {
+            return;
+        }
+        Optional<Field> idField = this.getEntityIdField();
+        if (savedObject != null && idField.isPresent() && !this.classType.isAnnotationPresent(IdClass.class)) {
+            ReflectionUtils.makeAccessible(idField.get());
+            ID id = (ID) ReflectionUtils.getField(idField.get(), savedObject);
+            this.evictNowAndAfterCompletion(() -> this.entityCache.evict(id));
         } else {
-            String fullSuppliedPath = EntityTraversalUtility.rejoinFieldsFromSecondIndex(separatedKey);
-            if (EntityTraversalUtility.isFieldOnObject(this.classType, fullSuppliedPath)) {
-                fieldName = fullSuppliedPath;
-            } else if (FILTER_ACTIONS.contains(separatedKey[separatedKey.length-1])) {
-                String suppliedPathWithoutOperator = EntityTraversalUtility.rejoinFieldsWithoutLastIndex(separatedKey);
-                if (EntityTraversalUtility.isFieldOnObject(this.classType, suppliedPathWithoutOperator)) {
-                    // field is valid and last index is operator
-                    fieldName = suppliedPathWithoutOperator;
-                    specifiedOperation = separatedKey[separatedKey.length-1];
-                }
-            }
+            this.evictNowAndAfterCompletion(this.entityCache::evictAll);
         }
-        return createFieldAndOperationMap(fieldName, specifiedOperation);
     }
 
-    private Map<String, String> createFieldAndOperationMap(String fieldName, String specifiedOperation) {
-        Map<String, String> fieldAndOperation = new HashMap<>();
-        fieldAndOperation.put("fieldName", fieldName);
-        fieldAndOperation.put("specifiedOperation", specifiedOperation);
-        return fieldAndOperation;
+    /**
+     * Evicts from the entity cache now and, within a transaction, again once it completes, as until then other
+     * threads still read and may cache the values being replaced
+     * @param eviction eviction to run
+     */
+    private void evictNowAndAfterCompletion(Runnable eviction) {
+        eviction.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    eviction.run();
+                }
+            });
+        }
     }
 
-    private Field getDefaultSortField() {
-        return this.getEntityIdField().orElse(this.classType.getDeclaredFields()[0]);
+    /**
+     * Runs an update of state kept outside the database once the current transaction commits, or straight away when
+     * there is none, so that the state never reflects changes which are rolled back or not yet visible to readers
+     * @param update update to run
+     */
+    private void runAfterCommit(Runnable update) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
     }
 
     private Optional<Field> getEntityIdField() {
@@ -252,6 +746,35 @@ public class RestfulService<R extends BaseJpaRepository<T, ID>, T, ID extends Se
         ).findAny();
     }
 
+    /**
+     * Finds the field recording when each object last changed - the field annotated with @LastModifiedDate or,
+     * failing that, a @Version field holding a timestamp
+     * @return change tracking field, if any
+     */
+    private Optional<Field> getChangeTrackingField() {
+        Field versionField = null;
+        for (Field field : this.classType.getDeclaredFields()) {
+            if (!ChangeToken.isSupportedType(field.getType())) {
+                continue;
+            }
+            if (field.isAnnotationPresent(LastModifiedDate.class)) {
+                ReflectionUtils.makeAccessible(field);
+                return Optional.of(field);
+            } else if (field.isAnnotationPresent(Version.class) && !Number.class.isAssignableFrom(field.getType())
+                    && !field.getType().isPrimitive()) {
+                versionField = field;
+            }
+        }
+        if (versionField != null) {
+            ReflectionUtils.makeAccessible(versionField);
+        }
+        return Optional.ofNullable(versionField);
+    }
+
+    private long getChangeTime(T object) {
+        return ChangeToken.toMillis(ReflectionUtils.getField(this.changeTrackingField, object));
+    }
+
     private Map<String, Integer> getPaginationParameters(Map<String, String[]> parameters) {
         Map<String, Integer> paginationParameters = new HashMap<>();
         if (parameters.containsKey("count")) {
@@ -263,111 +786,13 @@ public class RestfulService<R extends BaseJpaRepository<T, ID>, T, ID extends Se
         return paginationParameters;
     }
 
-    private SearchOperation getSearchOperation(String dotParam, String value) {
-        SearchOperation searchOperation;
-        switch (dotParam.toLowerCase()) {
-            case "before":
-            case "less":
-                searchOperation = SearchOperation.LESS_THAN;
-                break;
-            case "after":
-            case "greater":
-                searchOperation = SearchOperation.GREATER_THAN;
-                break;
-            case "like":
-                searchOperation = SearchOperation.LIKE;
-                break;
-            case "starts":
-                searchOperation = SearchOperation.STARTS;
-                break;
-            case "ends":
-                searchOperation = SearchOperation.ENDS;
-                break;
-            case "not":
-                searchOperation = SearchOperation.NOT_EQUAL;
-                break;
-            case "null":
-                if (value.equalsIgnoreCase("true")) {
-                    searchOperation = SearchOperation.NULL;
-                } else if (value.equalsIgnoreCase("false")) {
-                    searchOperation = SearchOperation.NOT_NULL;
-                } else {
-                    throw new BadRequestException("Invalid search criteria");
-                }
-                break;
-            case "min":
-            case "least":
-                searchOperation = SearchOperation.LEAST;
-                break;
-            case "max":
-            case "greatest":
-                searchOperation = SearchOperation.GREATEST;
-                break;
-            case "equal":
-            case "":
-                searchOperation = SearchOperation.EQUALS;
-                break;
-            default:
-                throw new BadRequestException("Invalid search criteria");
-        }
-        return searchOperation;
-    }
-
-    private void validateSearchOperationOnParameterType(SearchOperation searchOperation, Field field) {
-        boolean operationValid = true;
-        if (field == null) {
-            operationValid = false;
-        } else {
-            if (field.getType().isAssignableFrom(Number.class)) {
-                if (!VALID_NUMERIC_OPERATORS.contains(searchOperation)) {
-                    operationValid = false;
-                }
-            } else if (field.getType().isAssignableFrom(String.class)) {
-                if (!VALID_STRING_OPERATORS.contains(searchOperation)) {
-                    operationValid = false;
-                }
-            } else if (field.getType().isAssignableFrom(Date.class)
-                    || field.getType().isAssignableFrom(Time.class)
-                    || field.getType().isAssignableFrom(LocalDate.class)
-                    || field.getType().isAssignableFrom(LocalDateTime.class)) {
-                if (!VALID_DATE_OPERATORS.contains(searchOperation)) {
-                    operationValid = false;
-                }
-            } else if (field.getType().isAssignableFrom(Boolean.class)) {
-                if (!VALID_BOOLEAN_OPERATORS.contains(searchOperation)) {
-                    operationValid = false;
-                }
-            } else if (field.getType().isAssignableFrom(Character.class)) {
-                if (!VALID_CHARACTER_OPERATORS.contains(searchOperation)) {
-                    operationValid = false;
-                }
-            } else if (field.getType().isAssignableFrom(Enum.class)) {
-                if (!VALID_ENUM_OPERATORS.contains(searchOperation)) {
-                    operationValid = false;
-                }
-            }
-        }
-        if (!operationValid) {
-            throw new BadRequestException("Unable to perform operation of type " + searchOperation.toString()
-                    + " on a field of type " + field.getType().toString());
-        }
-    }
+    private static class CachedCount {
+        private final long count;
+        private final long expiresAt;
 
-    private Boolean isNonFilterAction(String key) {
-        return NON_FILTER_ACTIONS.contains(key);
-    }
-
-    private Boolean isNonPredicateKey(String key) {
-        return NON_PREDICATE_TERMS.contains(key);
-    }
-
-    private String getActionSpecifier(String originalKey) {
-        if (originalKey.equals("least")) {
-            originalKey = "min";
-        } else if (originalKey.equals("greatest")) {
-            originalKey = "max";
+        private CachedCount(long count, long expiresAt) {
+            this.count = count;
+            this.expiresAt = expiresAt;
         }
-        return originalKey;
     }
-
 }
@@ -2,45 +2,168 @@ package com.codehedgehog.strawberry;
 
 import org.springframework.util.Assert;
 
+import java.util.AbstractList;
 import java.util.AbstractMap;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Created by Jon on 1/19/2019.
+ *
+ * Immutable - operation value entries are ordered by operation once on construction so the criteria may be shared
+ * freely between threads and cached specifications. Operations and values are held in a slice of two parallel arrays
+ * and read by index, so no entry objects are created for them, and criteria parsed together may share the arrays.
  */
 public class SearchCriteria {
-    private String  key;
-    private List<Map.Entry<SearchOperation, Object>> operationValueEntries;
+    private final String  key;
+    private final SearchOperation[] operations;
+    private final Object[] values;
+    private final int offset;
+    private final int size;
 
     public SearchCriteria(String key, SearchOperation operation, Object value) {
+        this(key, new SearchOperation[] {operation}, new Object[] {value}, 1);
+    }
+
+    public SearchCriteria(String key, List<Map.Entry<SearchOperation, Object>> operationValueEntries) {
+        this(key, getOperations(operationValueEntries), getValues(operationValueEntries),
+                operationValueEntries.size());
+    }
+
+    /**
+     * Creates criteria holding the given arrays themselves rather than copies, sorting them in place. The caller
+     * must not use the arrays afterwards.
+     * @param key field path to search on
+     * @param operations operations, of which the first size are used
+     * @param values value for each operation, of which the first size are used
+     * @param size number of operation value entries
+     */
+    SearchCriteria(String key, SearchOperation[] operations, Object[] values, int size) {
+        this(key, operations, values, 0, size);
+    }
+
+    /**
+     * Creates criteria holding a slice of the given arrays rather than a copy, sorting the slice in place. Criteria
+     * created together may hold different slices of the same arrays; the caller must not change the arrays
+     * afterwards.
+     * @param key field path to search on
+     * @param operations operations, of which size from the offset are used
+     * @param values value for each operation, of which size from the offset are used
+     * @param offset index of the first entry
+     * @param size number of operation value entries
+     */
+    SearchCriteria(String key, SearchOperation[] operations, Object[] values, int offset, int size) {
         Assert.notNull(key, "Key must not be null");
-        Assert.notNull(operation, "Operation must not be null");
-        Assert.notNull(value, "Value must not be null");
+        Assert.isTrue(size > 0, "Operation value entries must not be empty");
+        for (int i = offset; i < offset + size; i++) {
+            Assert.notNull(operations[i], "Operation must not be null");
+            Assert.notNull(values[i], "Value must not be null");
+        }
+        sortByOperation(operations, values, offset, offset + size);
         this.key = key;
-        this.operationValueEntries = new ArrayList<>();
-        this.addOperationValueEntry(operation, value);
+        this.operations = operations;
+        this.values = values;
+        this.offset = offset;
+        this.size = size;
     }
 
     public String getKey() {
         return key;
     }
 
-    public void setKey(String key) {
-        this.key = key;
+    /**
+     * @return number of operation value entries
+     */
+    public int getOperationCount() {
+        return size;
+    }
+
+    /**
+     * @param index index of the entry, in order of operation
+     * @return operation of the entry
+     */
+    public SearchOperation getOperation(int index) {
+        Assert.isTrue(index >= 0 && index < size, "Index out of range");
+        return operations[offset + index];
+    }
+
+    /**
+     * @param index index of the entry, in order of operation
+     * @return value of the entry
+     */
+    public Object getValue(int index) {
+        Assert.isTrue(index >= 0 && index < size, "Index out of range");
+        return values[offset + index];
     }
 
+    /**
+     * Gets the operation value entries as a read-only list creating each entry as it is read; prefer
+     * {@link #getOperation(int)} and {@link #getValue(int)}
+     * @return operation value entries in order of operation
+     */
     public List<Map.Entry<SearchOperation, Object>> getOperationValueEntries() {
-        return operationValueEntries;
+        return new AbstractList<Map.Entry<SearchOperation, Object>>() {
+            @Override
+            public Map.Entry<SearchOperation, Object> get(int index) {
+                return new AbstractMap.SimpleImmutableEntry<>(getOperation(index), getValue(index));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Creates a copy of these criteria with an additional operation value entry
+     * @param operation operation to add
+     * @param value value for the operation
+     * @return new criteria including the entry
+     */
+    public SearchCriteria withOperationValueEntry(SearchOperation operation, Object value) {
+        SearchOperation[] newOperations = Arrays.copyOfRange(this.operations, this.offset,
+                this.offset + this.size + 1);
+        Object[] newValues = Arrays.copyOfRange(this.values, this.offset, this.offset + this.size + 1);
+        newOperations[this.size] = operation;
+        newValues[this.size] = value;
+        return new SearchCriteria(this.key, newOperations, newValues, this.size + 1);
+    }
+
+    /**
+     * Sorts the entries by operation with an insertion sort, which keeps entries of the same operation in the
+     * order given and suits the handful of entries criteria hold
+     */
+    private static void sortByOperation(SearchOperation[] operations, Object[] values, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            SearchOperation operation = operations[i];
+            Object value = values[i];
+            int j = i - 1;
+            while (j >= start && operations[j].compareTo(operation) > 0) {
+                operations[j + 1] = operations[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            operations[j + 1] = operation;
+            values[j + 1] = value;
+        }
     }
 
-    public void setOperationValueEntries(List<Map.Entry<SearchOperation, Object>> operationValueEntries) {
-        this.operationValueEntries = operationValueEntries;
+    private static SearchOperation[] getOperations(List<Map.Entry<SearchOperation, Object>> operationValueEntries) {
+        Assert.notNull(operationValueEntries, "Operation value entries must not be null");
+        SearchOperation[] operations = new SearchOperation[operationValueEntries.size()];
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = operationValueEntries.get(i).getKey();
+        }
+        return operations;
     }
 
-    public void addOperationValueEntry(SearchOperation operation, Object value) {
-        Map.Entry<SearchOperation, Object> operationValueEntry = new AbstractMap.SimpleEntry<>(operation, value);
-        this.operationValueEntries.add(operationValueEntry);
+    private static Object[] getValues(List<Map.Entry<SearchOperation, Object>> operationValueEntries) {
+        Object[] values = new Object[operationValueEntries.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = operationValueEntries.get(i).getValue();
+        }
+        return values;
     }
 }
@@ -0,0 +1,410 @@
+package com.codehedgehog.strawberry;
+
+import com.codehedgehog.strawberry.exceptions.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.lang.reflect.Field;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Turns query string parameters into search criteria in a single pass over each key. Keys are read in place by
+ * index - never split or copied - keywords are matched by length and first character, and field paths are walked
+ * against the entity without building intermediate strings. Operations and values are gathered into arrays sized
+ * once per parse and shared by all the criteria, and field names are copied out of a key only the first time the
+ * parser sees them, so each criterion costs a single allocation. Parsers are safe to share between threads.
+ */
+public class SearchParameterParser<T> {
+    private static final Set<SearchOperation> VALID_BOOLEAN_OPERATORS = EnumSet.of(SearchOperation.EQUALS,
+            SearchOperation.NOT_EQUAL, SearchOperation.NULL, SearchOperation.NOT_NULL);
+    private static final Set<SearchOperation> VALID_STRING_OPERATORS = EnumSet.of(SearchOperation.EQUALS,
+            SearchOperation.NOT_EQUAL, SearchOperation.NULL, SearchOperation.NOT_NULL, SearchOperation.ENDS,
+            SearchOperation.STARTS, SearchOperation.LIKE);
+    private static final Set<SearchOperation> VALID_ENUM_OPERATORS = EnumSet.of(SearchOperation.EQUALS,
+            SearchOperation.NOT_EQUAL, SearchOperation.NULL, SearchOperation.NOT_NULL, SearchOperation.ENDS,
+            SearchOperation.STARTS, SearchOperation.LIKE);
+    private static final Set<SearchOperation> VALID_NUMERIC_OPERATORS = EnumSet.of(SearchOperation.EQUALS,
+            SearchOperation.NOT_EQUAL, SearchOperation.NULL, SearchOperation.NOT_NULL, SearchOperation.ENDS,
+            SearchOperation.STARTS, SearchOperation.LIKE, SearchOperation.GREATER_THAN, SearchOperation.LESS_THAN,
+            SearchOperation.GREATEST, SearchOperation.LEAST);
+    private static final Set<SearchOperation> VALID_DATE_OPERATORS = EnumSet.of(SearchOperation.EQUALS,
+            SearchOperation.NOT_EQUAL, SearchOperation.NULL, SearchOperation.NOT_NULL, SearchOperation.GREATER_THAN,
+            SearchOperation.LESS_THAN, SearchOperation.GREATEST, SearchOperation.LEAST);
+    private static final Set<SearchOperation> VALID_CHARACTER_OPERATORS = EnumSet.of(SearchOperation.EQUALS,
+            SearchOperation.NOT_EQUAL, SearchOperation.NULL, SearchOperation.NOT_NULL);
+
+    private static final int MAX_KNOWN_KEYS = 256;
+
+    private final Logger log = LoggerFactory.getLogger(SearchParameterParser.class);
+
+    private final Class<T> entityClass;
+    private volatile String[] knownKeys = new String[16];
+    private int knownKeyCount;
+
+    public SearchParameterParser(Class<T> entityClass) {
+        Assert.notNull(entityClass, "Entity class must not be null");
+        this.entityClass = entityClass;
+    }
+
+    /**
+     * Parses the search criteria from the parameters. Filter keys take the form "filter.field" or
+     * "filter.field.operation", with each value of a key becoming an operation on the field; all operations on
+     * the same field are gathered into one criterion. Least and greatest keys ("filter.min=field") are gathered by
+     * operation instead. Keys for other actions or unknown fields are ignored.
+     * @param parameters query string parameters
+     * @return search criteria, one per field
+     */
+    public List<SearchCriteria> parse(Map<String, String[]> parameters) {
+        int valueCount = 0;
+        for (String[] values : parameters.values()) {
+            valueCount += values.length;
+        }
+        // criteria keys in order of first appearance, then the criterion, operation and value of each entry
+        String[] criteriaKeys = new String[parameters.size() + 2];
+        int criteriaCount = 0;
+        int[] entryCriteria = new int[valueCount];
+        SearchOperation[] entryOperations = new SearchOperation[valueCount];
+        Object[] entryValues = new Object[valueCount];
+        int entryCount = 0;
+        for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            String key = parameter.getKey();
+            String[] values = parameter.getValue();
+            log.debug("Parameter {} with values: {}", key, values);
+
+            int actionStart = key.indexOf('.') + 1;
+            if (actionStart == 0) {
+                // Enforce keys use reserved words or non-predicate keys only - ignore all others
+                continue;
+            }
+            int actionEnd = key.indexOf('.', actionStart);
+            if (actionEnd < 0) {
+                actionEnd = key.length();
+            }
+
+            SearchOperation nonPredicateOperation = getNonPredicateOperation(key, actionStart, actionEnd);
+            if (nonPredicateOperation != null) {
+                String criteriaKey = nonPredicateOperation == SearchOperation.LEAST ? "min" : "max";
+                for (String value : values) {
+                    this.validateSearchOperationOnParameterType(nonPredicateOperation,
+                            EntityTraversalUtility.getDeepestFieldOnPath(entityClass, value, 0, value.length()));
+                    int criterion = indexOf(criteriaKeys, criteriaCount, criteriaKey, 0, criteriaKey.length());
+                    if (criterion < 0) {
+                        criterion = criteriaCount;
+                        criteriaKeys[criteriaCount++] = criteriaKey;
+                    }
+                    entryCriteria[entryCount] = criterion;
+                    entryOperations[entryCount] = nonPredicateOperation;
+                    entryValues[entryCount++] = value;
+                }
+                continue;
+            }
+            if (isNonFilterAction(key, actionStart, actionEnd)) {
+                // non-filter actions are handled elsewhere - skip them here
+                continue;
+            }
+
+            int fieldEnd = key.length();
+            SearchOperation specifiedOperation = null;
+            Field field = EntityTraversalUtility.getDeepestFieldOnPath(entityClass, key, actionStart, fieldEnd);
+            if (field == null && actionEnd < key.length()) {
+                int operationStart = key.lastIndexOf('.') + 1;
+                specifiedOperation = getFilterOperation(key, operationStart, key.length());
+                if (specifiedOperation != null) {
+                    // field is valid and last index is operator
+                    fieldEnd = operationStart - 1;
+                    field = EntityTraversalUtility.getDeepestFieldOnPath(entityClass, key, actionStart, fieldEnd);
+                }
+            }
+            if (field == null) {
+                // field does not exist on the entity so ignore it
+                continue;
+            }
+
+            int criterion = -1;
+            for (String value : values) {
+                SearchOperation searchOperation = getSearchOperation(specifiedOperation, value);
+                this.validateSearchOperationOnParameterType(searchOperation, field);
+                if (criterion < 0) {
+                    criterion = indexOf(criteriaKeys, criteriaCount, key, actionStart, fieldEnd);
+                    if (criterion < 0) {
+                        criterion = criteriaCount;
+                        criteriaKeys[criteriaCount++] = this.getCriteriaKey(key, actionStart, fieldEnd);
+                    }
+                }
+                entryCriteria[entryCount] = criterion;
+                entryOperations[entryCount] = searchOperation;
+                entryValues[entryCount++] = value;
+            }
+        }
+        return createSearchCriteria(criteriaKeys, criteriaCount, entryCriteria, entryOperations, entryValues,
+                entryCount);
+    }
+
+    /**
+     * Creates the criteria from the parsed entries. The entries are laid out grouped by criterion in one pair of
+     * arrays, in which each criterion holds its own slice, so the criteria themselves are the only objects created
+     * per criterion.
+     * @param criteriaKeys key of each criterion
+     * @param criteriaCount number of criteria
+     * @param entryCriteria index of the criterion of each entry
+     * @param entryOperations operation of each entry
+     * @param entryValues value of each entry
+     * @param entryCount number of entries
+     * @return search criteria in order of first appearance
+     */
+    private static List<SearchCriteria> createSearchCriteria(String[] criteriaKeys, int criteriaCount,
+                                                             int[] entryCriteria, SearchOperation[] entryOperations,
+                                                             Object[] entryValues, int entryCount) {
+        int[] ends = new int[criteriaCount];
+        for (int i = 0; i < entryCount; i++) {
+            ends[entryCriteria[i]]++;
+        }
+        for (int i = 1; i < criteriaCount; i++) {
+            ends[i] += ends[i - 1];
+        }
+        SearchOperation[] operations = new SearchOperation[entryCount];
+        Object[] values = new Object[entryCount];
+        // placed from the last entry back, so each criterion's entries keep their order within its slice
+        for (int i = entryCount - 1; i >= 0; i--) {
+            int position = --ends[entryCriteria[i]];
+            operations[position] = entryOperations[i];
+            values[position] = entryValues[i];
+        }
+        // each end has been moved back to the start of its criterion's slice
+        List<SearchCriteria> searchCriteriaList = new ArrayList<>(criteriaCount);
+        for (int i = 0; i < criteriaCount; i++) {
+            int sliceEnd = i + 1 < criteriaCount ? ends[i + 1] : entryCount;
+            searchCriteriaList.add(new SearchCriteria(criteriaKeys[i], operations, values, ends[i],
+                    sliceEnd - ends[i]));
+        }
+        return searchCriteriaList;
+    }
+
+    /**
+     * Finds the criteria key held between the indexes of a string among those seen so far. Requests filter on a
+     * handful of fields, so a linear search is cheaper than hashing.
+     * @param criteriaKeys keys seen so far
+     * @param criteriaCount number of keys seen so far
+     * @param source string holding the criteria key
+     * @param start index of the key's first character
+     * @param end index after the key's last character
+     * @return index of the key, or -1 if not seen
+     */
+    private static int indexOf(String[] criteriaKeys, int criteriaCount, String source, int start, int end) {
+        for (int i = 0; i < criteriaCount; i++) {
+            if (matches(source, start, end, criteriaKeys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the criteria key held between the indexes of a string. Keys are field paths of the entity, so the
+     * parser remembers those it has copied out before in a small open addressing table and hands the same string
+     * out again rather than copying it.
+     * @param source string holding the criteria key
+     * @param start index of the key's first character
+     * @param end index after the key's last character
+     * @return criteria key
+     */
+    private String getCriteriaKey(String source, int start, int end) {
+        int hash = hash(source, start, end);
+        String[] keys = this.knownKeys;
+        int mask = keys.length - 1;
+        for (int i = hash & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (matches(source, start, end, keys[i])) {
+                return keys[i];
+            }
+        }
+        String key = source.substring(start, end);
+        this.addKnownKey(key, hash);
+        return key;
+    }
+
+    /**
+     * Remembers a criteria key, keeping the table at most half full so every probe reaches an empty slot. A reader
+     * racing with this sees either the key or an empty slot, and in the latter case simply copies the key itself.
+     * @param key key to remember
+     * @param hash hash of the key
+     */
+    private synchronized void addKnownKey(String key, int hash) {
+        if (knownKeyCount >= MAX_KNOWN_KEYS) {
+            return;
+        }
+        String[] keys = this.knownKeys;
+        if ((knownKeyCount + 1) * 2 > keys.length) {
+            String[] grownKeys = new String[keys.length * 2];
+            for (String knownKey : keys) {
+                if (knownKey != null) {
+                    insertKey(grownKeys, knownKey, hash(knownKey, 0, knownKey.length()));
+                }
+            }
+            if (insertKey(grownKeys, key, hash)) {
+                knownKeyCount++;
+            }
+            this.knownKeys = grownKeys;
+        } else if (insertKey(keys, key, hash)) {
+            knownKeyCount++;
+        }
+    }
+
+    private static boolean insertKey(String[] keys, String key, int hash) {
+        int mask = keys.length - 1;
+        int i = hash & mask;
+        while (keys[i] != null) {
+            if (keys[i].equals(key)) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        return true;
+    }
+
+    private static int hash(String source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Gets the operation for the value given the operation named in the key, if any
+     * @param specifiedOperation operation named in the key, or null for equals
+     * @param value value supplied for the key
+     * @return operation to perform
+     */
+    private static SearchOperation getSearchOperation(SearchOperation specifiedOperation, String value) {
+        if (specifiedOperation == null) {
+            return SearchOperation.EQUALS;
+        } else if (specifiedOperation == SearchOperation.NULL) {
+            if (value.equalsIgnoreCase("true")) {
+                return SearchOperation.NULL;
+            } else if (value.equalsIgnoreCase("false")) {
+                return SearchOperation.NOT_NULL;
+            }
+            throw new BadRequestException("Invalid search criteria");
+        }
+        return specifiedOperation;
+    }
+
+    /**
+     * Matches the filter operation keyword between the indexes of the key
+     * @return operation for the keyword, with NULL standing for the "null" keyword, or null if not a keyword
+     */
+    private static SearchOperation getFilterOperation(String key, int start, int end) {
+        switch (end - start) {
+            case 3:
+                return matches(key, start, end, "not") ? SearchOperation.NOT_EQUAL : null;
+            case 4:
+                switch (key.charAt(start)) {
+                    case 'l':
+                        if (matches(key, start, end, "less")) {
+                            return SearchOperation.LESS_THAN;
+                        }
+                        return matches(key, start, end, "like") ? SearchOperation.LIKE : null;
+                    case 'n':
+                        return matches(key, start, end, "null") ? SearchOperation.NULL : null;
+                    case 'e':
+                        return matches(key, start, end, "ends") ? SearchOperation.ENDS : null;
+                    default:
+                        return null;
+                }
+            case 5:
+                switch (key.charAt(start)) {
+                    case 'a':
+                        return matches(key, start, end, "after") ? SearchOperation.GREATER_THAN : null;
+                    case 'e':
+                        return matches(key, start, end, "equal") ? SearchOperation.EQUALS : null;
+                    default:
+                        return null;
+                }
+            case 6:
+                switch (key.charAt(start)) {
+                    case 'b':
+                        return matches(key, start, end, "before") ? SearchOperation.LESS_THAN : null;
+                    case 's':
+                        return matches(key, start, end, "starts") ? SearchOperation.STARTS : null;
+                    case 'e':
+                        return matches(key, start, end, "equals") ? SearchOperation.EQUALS : null;
+                    default:
+                        return null;
+                }
+            case 7:
+                return matches(key, start, end, "greater") ? SearchOperation.GREATER_THAN : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Matches the least/greatest keyword between the indexes of the key
+     * @return LEAST or GREATEST, or null if not a keyword
+     */
+    private static SearchOperation getNonPredicateOperation(String key, int start, int end) {
+        switch (end - start) {
+            case 3:
+                if (matches(key, start, end, "min")) {
+                    return SearchOperation.LEAST;
+                }
+                return matches(key, start, end, "max") ? SearchOperation.GREATEST : null;
+            case 5:
+                return matches(key, start, end, "least") ? SearchOperation.LEAST : null;
+            case 8:
+                return matches(key, start, end, "greatest") ? SearchOperation.GREATEST : null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isNonFilterAction(String key, int start, int end) {
+        switch (end - start) {
+            case 4:
+                return matches(key, start, end, "sort");
+            case 5:
+                return matches(key, start, end, "count") || matches(key, start, end, "start");
+            case 7:
+                return matches(key, start, end, "include");
+            default:
+                return false;
+        }
+    }
+
+    private static boolean matches(String key, int start, int end, String keyword) {
+        return end - start == keyword.length() && key.regionMatches(start, keyword, 0, keyword.length());
+    }
+
+    private void validateSearchOperationOnParameterType(SearchOperation searchOperation, Field field) {
+        if (field == null) {
+            throw new BadRequestException("Unable to perform operation of type " + searchOperation.toString()
+                    + " on an unknown field");
+        }
+        boolean operationValid = true;
+        if (field.getType().isAssignableFrom(Number.class)) {
+            operationValid = VALID_NUMERIC_OPERATORS.contains(searchOperation);
+        } else if (field.getType().isAssignableFrom(String.class)) {
+            operationValid = VALID_STRING_OPERATORS.contains(searchOperation);
+        } else if (field.getType().isAssignableFrom(Date.class)
+                || field.getType().isAssignableFrom(Time.class)
+                || field.getType().isAssignableFrom(LocalDate.class)
+                || field.getType().isAssignableFrom(LocalDateTime.class)) {
+            operationValid = VALID_DATE_OPERATORS.contains(searchOperation);
+        } else if (field.getType().isAssignableFrom(Boolean.class)) {
+            operationValid = VALID_BOOLEAN_OPERATORS.contains(searchOperation);
+        } else if (field.getType().isAssignableFrom(Character.class)) {
+            operationValid = VALID_CHARACTER_OPERATORS.contains(searchOperation);
+        } else if (field.getType().isAssignableFrom(Enum.class)) {
+            operationValid = VALID_ENUM_OPERATORS.contains(searchOperation);
+        }
+        if (!operationValid) {
+            throw new BadRequestException("Unable to perform operation of type " + searchOperation.toString()
+                    + " on a field of type " + field.getType().toString());
+        }
+    }
+}
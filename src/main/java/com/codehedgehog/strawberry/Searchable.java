@@ -0,0 +1,15 @@
+package com.codehedgehog.strawberry;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a String field of an entity to be held in its {@link FullTextIndex}, letting "like", "starts" and "ends"
+ * filters and "search" requests on the field be answered without scanning the table.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Searchable {
+}
@@ -11,54 +11,86 @@ import java.util.*;
 public class SpecificationBuilder<T> {
     public static final List<String> NON_PREDICATE_TERMS =
             Collections.unmodifiableList(Arrays.asList("least", "greatest", "min", "max"));
+    private final Class<T> entityClass;
+    private final FullTextIndex<T, ?> fullTextIndex;
+    private final boolean bindValues;
     private final List<SearchCriteria> searchCriteriaList;
 
-    public SpecificationBuilder() { this.searchCriteriaList = new ArrayList<>(); }
+    public SpecificationBuilder(Class<T> entityClass) {
+        this(entityClass, null);
+    }
+
+    /**
+     * @param entityClass entity on which to search
+     * @param fullTextIndex index through which to answer text operations on searchable fields, or null if none
+     */
+    public SpecificationBuilder(Class<T> entityClass, FullTextIndex<T, ?> fullTextIndex) {
+        this(entityClass, fullTextIndex, true);
+    }
 
-    public SpecificationBuilder with(List<SearchCriteria> searchCriteriaList) {
+    /**
+     * @param entityClass entity on which to search
+     * @param fullTextIndex index through which to answer text operations on searchable fields, or null if none
+     * @param bindValues whether values are bound as query parameters, which requires a repository based on
+     *                   {@link BaseJpaRepositoryImpl}, or rendered as literals for any other repository
+     */
+    public SpecificationBuilder(Class<T> entityClass, FullTextIndex<T, ?> fullTextIndex, boolean bindValues) {
+        Assert.notNull(entityClass, "Entity class must not be null");
+        this.entityClass = entityClass;
+        this.fullTextIndex = fullTextIndex;
+        this.bindValues = bindValues;
+        this.searchCriteriaList = new ArrayList<>();
+    }
+
+    public SpecificationBuilder<T> with(List<SearchCriteria> searchCriteriaList) {
         this.searchCriteriaList.addAll(searchCriteriaList);
         return this;
     }
 
+    /**
+     * Builds an immutable specification from the criteria supplied so far. The builder itself is left unchanged
+     * and the returned specification may be cached and shared between threads.
+     * @return specification for all search criteria
+     */
     public Specification<T> build() {
         Assert.notEmpty(searchCriteriaList, "Search Parameters must not be empty");
-        Collections.sort(searchCriteriaList, Comparator.comparing(SearchCriteria::getKey));
-        if (containsNonPredicateTerms()) {
-            return getNonPredicateSpecification();
-        } else {
-            return getPredicateOnlySpecification();
+        List<SearchCriteria> sortedCriteria = new ArrayList<>(searchCriteriaList);
+        sortedCriteria.sort(Comparator.comparing(SearchCriteria::getKey));
+        if (containsNonPredicateTerms(sortedCriteria)) {
+            return getNonPredicateSpecification(sortedCriteria);
         }
-    }
-
-    private Specification<T> getPredicateOnlySpecification() {
-        return this.getPredicateSpecification(searchCriteriaList, null);
+        return getPredicateSpecification(sortedCriteria, null);
     }
 
     private Specification<T> getPredicateSpecification(List<SearchCriteria> predicateCriteria, Specification<T> spec) {
         Iterator<SearchCriteria> iterator = predicateCriteria.iterator();
         if (spec == null) {
             SearchCriteria searchCriteria = iterator.next();
-            spec = Specification.where(new GenericSpecification<T>(searchCriteria));
+            spec = Specification.where(
+                    new GenericSpecification<>(entityClass, searchCriteria, fullTextIndex, bindValues));
         }
         while (iterator.hasNext()) {
             SearchCriteria searchCriteria = iterator.next();
-            spec = spec.and(new GenericSpecification<T>(searchCriteria));
+            spec = spec.and(new GenericSpecification<>(entityClass, searchCriteria, fullTextIndex, bindValues));
         }
         return spec;
     }
 
-    private Specification<T> getNonPredicateSpecification() {
+    private Specification<T> getNonPredicateSpecification(List<SearchCriteria> sortedCriteria) {
         List<SearchCriteria> nonPredicateCriteria = new ArrayList<>();
         List<SearchCriteria> predicateCriteria = new ArrayList<>();
-        separatePredicatesAndNonPredicates(nonPredicateCriteria, predicateCriteria);
+        separatePredicatesAndNonPredicates(sortedCriteria, nonPredicateCriteria, predicateCriteria);
 
         Iterator<SearchCriteria> iterator = nonPredicateCriteria.iterator();
         SearchCriteria nonPredicateSearchCriterion = iterator.next();
         Specification<T> spec = Specification.where(
-                new NonPredicateSpecification<T>(nonPredicateSearchCriterion, predicateCriteria));
+                new NonPredicateSpecification<T>(entityClass, nonPredicateSearchCriterion, predicateCriteria,
+                        fullTextIndex, bindValues));
         while(iterator.hasNext()) {
             nonPredicateSearchCriterion = iterator.next();
-            spec = spec.and(new NonPredicateSpecification<T>(nonPredicateSearchCriterion, predicateCriteria));
+            spec = spec.and(
+                    new NonPredicateSpecification<T>(entityClass, nonPredicateSearchCriterion, predicateCriteria,
+                            fullTextIndex, bindValues));
         }
 
         spec = getPredicateSpecification(predicateCriteria, spec);
@@ -66,9 +98,10 @@ public class SpecificationBuilder<T> {
         return spec;
     }
 
-    private void separatePredicatesAndNonPredicates(List<SearchCriteria> nonPredicateCriteria,
-                                       List<SearchCriteria> predicateCriteria) {
-        for (SearchCriteria searchCriterion : searchCriteriaList) {
+    private void separatePredicatesAndNonPredicates(List<SearchCriteria> sortedCriteria,
+                                                    List<SearchCriteria> nonPredicateCriteria,
+                                                    List<SearchCriteria> predicateCriteria) {
+        for (SearchCriteria searchCriterion : sortedCriteria) {
             if (isNonPredicateTerm(searchCriterion)) {
                 nonPredicateCriteria.add(searchCriterion);
             } else {
@@ -77,8 +110,8 @@ public class SpecificationBuilder<T> {
         }
     }
 
-    private Boolean containsNonPredicateTerms() {
-        for (SearchCriteria searchCriterion : searchCriteriaList) {
+    private Boolean containsNonPredicateTerms(List<SearchCriteria> sortedCriteria) {
+        for (SearchCriteria searchCriterion : sortedCriteria) {
             if (isNonPredicateTerm(searchCriterion)) {
                 return true;
             }
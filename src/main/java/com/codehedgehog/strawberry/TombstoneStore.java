@@ -0,0 +1,30 @@
+package com.codehedgehog.strawberry;
+
+import java.util.Map;
+
+/**
+ * Records the IDs of deleted objects so change feeds can report them after the rows are gone.
+ */
+public interface TombstoneStore<ID> {
+
+    /**
+     * Records the deletion of an object
+     * @param id ID of the deleted object
+     * @param deletedAt time of deletion in milliseconds since the epoch
+     */
+    void record(ID id, long deletedAt);
+
+    /**
+     * Gets the objects deleted at or after the given time
+     * @param since time in milliseconds since the epoch
+     * @return deletion time of each object deleted at or after the time, keyed by ID in order of deletion
+     */
+    Map<ID, Long> getDeletedSince(long since);
+
+    /**
+     * Whether every deletion at or after the given time is held
+     * @param since time in milliseconds since the epoch
+     * @return false if deletions at or after the time may have been discarded or were never recorded by this store
+     */
+    boolean isRetainedSince(long since);
+}
@@ -0,0 +1,595 @@
+package com.codehedgehog.strawberry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+
+import javax.persistence.Id;
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process full text index mapping every three character sequence of each searchable field to the IDs of the
+ * entities containing it. A lookup intersects the ID sets for the sequences in the value and then checks each
+ * candidate against its indexed value, so the IDs returned are exact. Values are held upper-cased to match the
+ * case-insensitive filters.
+ * <p>
+ * The index may optionally be kept in a file on local disk and is reloaded from it when created, avoiding a full
+ * scan on every start. Each rebuild or {@link #save()} writes a snapshot of the whole index, and every entity
+ * indexed or removed afterwards is appended to a journal beside it, which is replayed on load. Snapshot and journal
+ * carry the same generation, so a journal left over from an earlier snapshot is never replayed onto a later one.
+ * {@link #getCompleteUpTo()} tells the service how current the loaded index is, so that it can rebuild a stale
+ * one.
+ */
+public class TrigramIndex<T, ID extends Serializable> implements FullTextIndex<T, ID>, Closeable {
+    private static final int TRIGRAM_LENGTH = 3;
+    private static final int FORMAT_VERSION = 2;
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private final Logger log = LoggerFactory.getLogger(TrigramIndex.class);
+
+    private final Field idField;
+    private final String[] fieldNames;
+    private final Field[] fields;
+    private final Path indexFile;
+    private final Path journalFile;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object rebuildLock = new Object();
+    private Map<ID, String[]> documents;
+    private Map<String, Set<ID>>[] postings;
+    private long completeUpTo = -1;
+    private long generation;
+    private DataOutputStream journal;
+    private List<Update<ID>> rebuildUpdates;
+
+    public TrigramIndex(Class<T> entityClass) {
+        this(entityClass, null);
+    }
+
+    /**
+     * @param entityClass entity to index, having a single @Id field and at least one @Searchable String field
+     * @param indexFile file in which to save the index, or null to hold it in memory only
+     */
+    public TrigramIndex(Class<T> entityClass, Path indexFile) {
+        Assert.notNull(entityClass, "Entity class must not be null");
+        Field entityIdField = null;
+        List<Field> searchableFields = new ArrayList<>();
+        for (Field field : entityClass.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Id.class)) {
+                entityIdField = field;
+            } else if (field.isAnnotationPresent(Searchable.class)) {
+                Assert.isTrue(String.class.equals(field.getType()), "Searchable field " + field.getName()
+                        + " must be a String");
+                ReflectionUtils.makeAccessible(field);
+                searchableFields.add(field);
+            }
+        }
+        Assert.notNull(entityIdField, "Entity must have a single @Id field to be indexed");
+        Assert.notEmpty(searchableFields, "Entity must have at least one @Searchable field to be indexed");
+        ReflectionUtils.makeAccessible(entityIdField);
+        this.idField = entityIdField;
+        this.fields = searchableFields.toArray(new Field[0]);
+        this.fieldNames = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            this.fieldNames[i] = fields[i].getName();
+        }
+        this.indexFile = indexFile;
+        this.journalFile = indexFile == null
+                ? null : indexFile.resolveSibling(indexFile.getFileName() + JOURNAL_SUFFIX);
+        this.documents = new HashMap<>();
+        this.postings = createPostings();
+        if (indexFile != null && Files.exists(indexFile)) {
+            this.load();
+        }
+    }
+
+    @Override
+    public String getIdAttribute() {
+        return idField.getName();
+    }
+
+    @Override
+    public boolean isIndexed(String field) {
+        return this.getFieldIndex(field) >= 0;
+    }
+
+    @Override
+    public void index(T entity) {
+        ID id = (ID) ReflectionUtils.getField(idField, entity);
+        Assert.notNull(id, "Entity must have an ID to be indexed");
+        this.update(new Update<>(id, this.getIndexedValues(entity)));
+    }
+
+    @Override
+    public void remove(ID id) {
+        this.update(new Update<>(id, null));
+    }
+
+    /**
+     * Builds a new index from the entities and swaps it in, so lookups carry on against the old index meanwhile.
+     * Entities indexed or removed while the entities are read are recorded and applied to the new index before the
+     * swap, as the entities read may predate them. The new index is saved if a file was given.
+     * @param entities every entity
+     */
+    @Override
+    public void rebuild(Iterable<? extends T> entities) {
+        synchronized (rebuildLock) {
+            long rebuildStart = System.currentTimeMillis();
+            lock.writeLock().lock();
+            try {
+                rebuildUpdates = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Map<ID, String[]> newDocuments = new HashMap<>();
+            Map<String, Set<ID>>[] newPostings = createPostings();
+            try {
+                for (T entity : entities) {
+                    ID id = (ID) ReflectionUtils.getField(idField, entity);
+                    if (id != null) {
+                        addDocument(newDocuments, newPostings, id, this.getIndexedValues(entity));
+                    }
+                }
+            } catch (RuntimeException e) {
+                lock.writeLock().lock();
+                try {
+                    rebuildUpdates = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw e;
+            }
+            lock.writeLock().lock();
+            try {
+                for (Update<ID> update : rebuildUpdates) {
+                    update.apply(newDocuments, newPostings);
+                }
+                rebuildUpdates = null;
+                this.documents = newDocuments;
+                this.postings = newPostings;
+                this.completeUpTo = Math.max(this.completeUpTo, rebuildStart);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (indexFile != null) {
+                this.save();
+            }
+        }
+    }
+
+    /**
+     * Gets the time up to which the index holds every change made through the service: the start of the last
+     * rebuild, or the last entity indexed or removed since if later
+     * @return time in milliseconds since the epoch, or -1 if the index has never been filled
+     */
+    @Override
+    public long getCompleteUpTo() {
+        lock.readLock().lock();
+        try {
+            return completeUpTo;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getEntityCount() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<ID> find(String field, SearchOperation operation, String value) {
+        int fieldIndex = this.getFieldIndex(field);
+        Assert.isTrue(fieldIndex >= 0, "Field " + field + " is not indexed");
+        String upperValue = value.toUpperCase();
+        Set<ID> ids = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            Collection<ID> candidates = upperValue.length() < TRIGRAM_LENGTH
+                    ? documents.keySet() : this.getCandidates(postings[fieldIndex], upperValue);
+            for (ID id : candidates) {
+                String indexedValue = documents.get(id)[fieldIndex];
+                if (indexedValue != null && matches(operation, indexedValue, upperValue)) {
+                    ids.add(id);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ids;
+    }
+
+    /**
+     * Ranks entities by how many of the text's three character sequences appear in their indexed fields, placing
+     * those containing the whole text first. Entities sharing fewer than half of the sequences are not returned.
+     * @param text text to search for
+     * @param maxResults maximum number of IDs to return
+     * @return IDs of the matching entities, most relevant first
+     */
+    @Override
+    public List<ID> search(String text, int maxResults) {
+        String upperText = text.trim().toUpperCase();
+        if (upperText.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<String> trigrams = getTrigrams(upperText);
+        Map<ID, Integer> scores = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            if (trigrams.isEmpty()) {
+                for (ID id : documents.keySet()) {
+                    scores.put(id, 0);
+                }
+            } else {
+                for (String trigram : trigrams) {
+                    Set<ID> matchedIds = new HashSet<>();
+                    for (Map<String, Set<ID>> fieldPostings : postings) {
+                        matchedIds.addAll(fieldPostings.getOrDefault(trigram, Collections.emptySet()));
+                    }
+                    for (ID id : matchedIds) {
+                        scores.merge(id, 1, Integer::sum);
+                    }
+                }
+                scores.values().removeIf(score -> score * 2 < trigrams.size());
+            }
+            for (Iterator<Map.Entry<ID, Integer>> iterator = scores.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<ID, Integer> score = iterator.next();
+                if (this.containsText(documents.get(score.getKey()), upperText)) {
+                    score.setValue(score.getValue() + trigrams.size() + 1);
+                } else if (trigrams.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Map.Entry<ID, Integer>> rankedScores = new ArrayList<>(scores.entrySet());
+        rankedScores.sort(Map.Entry.<ID, Integer>comparingByValue().reversed());
+        List<ID> ids = new ArrayList<>(Math.min(maxResults, rankedScores.size()));
+        for (int i = 0; i < rankedScores.size() && i < maxResults; i++) {
+            ids.add(rankedScores.get(i).getKey());
+        }
+        return ids;
+    }
+
+    /**
+     * Saves a snapshot of the index to its file, replacing the previous one only once fully written, and starts a
+     * new journal for the changes that follow it
+     */
+    public void save() {
+        Assert.state(indexFile != null, "No index file was given");
+        synchronized (rebuildLock) {
+            // the read lock keeps out changes, which journal under the write lock, until the new journal is begun
+            lock.readLock().lock();
+            try {
+                long newGeneration = generation + 1;
+                Path temporaryFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+                try (ObjectOutputStream outputStream = new ObjectOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                    outputStream.writeInt(FORMAT_VERSION);
+                    outputStream.writeObject(fieldNames);
+                    outputStream.writeLong(newGeneration);
+                    outputStream.writeLong(completeUpTo);
+                    outputStream.writeObject(new HashMap<>(documents));
+                }
+                Files.move(temporaryFile, indexFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                this.closeJournal();
+                generation = newGeneration;
+                journal = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile)));
+                journal.writeLong(generation);
+                journal.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to save index to " + indexFile, e);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes the journal. Later changes are held in memory only, until the next save.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            this.closeJournal();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a change to the index, recording it for a rebuild in progress and appending it to the journal
+     * @param update change to apply
+     */
+    private void update(Update<ID> update) {
+        byte[] record = journalFile == null ? null : serialize(update);
+        lock.writeLock().lock();
+        try {
+            update.apply(documents, postings);
+            if (rebuildUpdates != null) {
+                rebuildUpdates.add(update);
+            }
+            long updatedAt = System.currentTimeMillis();
+            if (completeUpTo >= 0) {
+                completeUpTo = Math.max(completeUpTo, updatedAt);
+            }
+            if (journal != null) {
+                this.appendToJournal(record, updatedAt);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void appendToJournal(byte[] record, long updatedAt) {
+        try {
+            journal.writeLong(updatedAt);
+            journal.writeInt(record.length);
+            journal.write(record);
+            journal.flush();
+        } catch (IOException e) {
+            // without the change the journal no longer matches the index, so stop it and let the next load rebuild
+            log.warn("Unable to write to {} - changes will not be saved until the index is saved again",
+                    journalFile, e);
+            this.closeJournal();
+            try {
+                Files.deleteIfExists(journalFile);
+                Files.deleteIfExists(indexFile);
+            } catch (IOException deleteException) {
+                log.warn("Unable to delete {}", indexFile, deleteException);
+            }
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warn("Unable to close {}", journalFile, e);
+            }
+            journal = null;
+        }
+    }
+
+    private void load() {
+        try (ObjectInputStream inputStream = new ObjectInputStream(
+                new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (inputStream.readInt() != FORMAT_VERSION) {
+                log.warn("{} was saved in another format - the index must be rebuilt", indexFile);
+                return;
+            }
+            String[] savedFieldNames = (String[]) inputStream.readObject();
+            if (!Arrays.equals(savedFieldNames, fieldNames)) {
+                log.warn("Searchable fields have changed since {} was saved - the index must be rebuilt", indexFile);
+                return;
+            }
+            long savedGeneration = inputStream.readLong();
+            long savedCompleteUpTo = inputStream.readLong();
+            Map<ID, String[]> savedDocuments = (Map<ID, String[]>) inputStream.readObject();
+            for (Map.Entry<ID, String[]> document : savedDocuments.entrySet()) {
+                addDocument(documents, postings, document.getKey(), document.getValue());
+            }
+            this.generation = savedGeneration;
+            this.completeUpTo = Math.max(savedCompleteUpTo, this.replayJournal());
+            this.journal = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            if (Files.size(journalFile) == 0) {
+                journal.writeLong(generation);
+                journal.flush();
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.warn("Unable to load index from {} - the index must be rebuilt", indexFile, e);
+            this.closeJournal();
+            this.documents = new HashMap<>();
+            this.postings = createPostings();
+            this.completeUpTo = -1;
+        }
+    }
+
+    /**
+     * Replays the changes journaled since the loaded snapshot. A journal of another generation is discarded, as is
+     * a final record cut short by the process stopping.
+     * @return time of the last change replayed, or -1 if none
+     * @throws IOException if the journal cannot be read
+     * @throws ClassNotFoundException if a journaled ID is of an unknown class
+     */
+    private long replayJournal() throws IOException, ClassNotFoundException {
+        long lastUpdatedAt = -1;
+        if (!Files.exists(journalFile)) {
+            return lastUpdatedAt;
+        }
+        long validLength = 0;
+        try (DataInputStream inputStream = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            if (inputStream.readLong() != generation) {
+                log.info("Discarding {} as it predates the index snapshot", journalFile);
+                Files.delete(journalFile);
+                return lastUpdatedAt;
+            }
+            validLength = Long.BYTES;
+            while (true) {
+                long updatedAt = inputStream.readLong();
+                byte[] record = new byte[inputStream.readInt()];
+                inputStream.readFully(record);
+                TrigramIndex.<ID>deserialize(record).apply(documents, postings);
+                lastUpdatedAt = updatedAt;
+                validLength += Long.BYTES + Integer.BYTES + record.length;
+            }
+        } catch (EOFException e) {
+            // the end of the journal, or a record cut short and dropped with the truncation below
+        }
+        if (validLength > 0 && validLength < Files.size(journalFile)) {
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return lastUpdatedAt;
+    }
+
+    private static byte[] serialize(Update<?> update) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(bytes)) {
+            outputStream.writeObject(update.id);
+            outputStream.writeObject(update.values);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to serialize ID " + update.id, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static <ID> Update<ID> deserialize(byte[] record) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(record))) {
+            return new Update<>((ID) inputStream.readObject(), (String[]) inputStream.readObject());
+        }
+    }
+
+    private String[] getIndexedValues(T entity) {
+        String[] values = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            Object value = ReflectionUtils.getField(fields[i], entity);
+            values[i] = value == null ? null : value.toString().toUpperCase();
+        }
+        return values;
+    }
+
+    private int getFieldIndex(String field) {
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (fieldNames[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the IDs of entities whose field contains every three character sequence of the value, walking the
+     * smallest ID set and checking the others
+     */
+    private Collection<ID> getCandidates(Map<String, Set<ID>> fieldPostings, String upperValue) {
+        List<Set<ID>> idSets = new ArrayList<>();
+        for (String trigram : getTrigrams(upperValue)) {
+            Set<ID> ids = fieldPostings.get(trigram);
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            idSets.add(ids);
+        }
+        idSets.sort(Comparator.comparingInt(Set::size));
+        List<ID> candidates = new ArrayList<>();
+        for (ID id : idSets.get(0)) {
+            boolean inAll = true;
+            for (int i = 1; i < idSets.size() && inAll; i++) {
+                inAll = idSets.get(i).contains(id);
+            }
+            if (inAll) {
+                candidates.add(id);
+            }
+        }
+        return candidates;
+    }
+
+    private boolean containsText(String[] values, String upperText) {
+        for (String value : values) {
+            if (value != null && value.contains(upperText)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Map<String, Set<ID>>[] createPostings() {
+        Map<String, Set<ID>>[] newPostings = new Map[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            newPostings[i] = new HashMap<>();
+        }
+        return newPostings;
+    }
+
+    private static <ID> void addDocument(Map<ID, String[]> documents, Map<String, Set<ID>>[] postings, ID id,
+                                         String[] values) {
+        documents.put(id, values);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                for (String trigram : getTrigrams(values[i])) {
+                    postings[i].computeIfAbsent(trigram, k -> new HashSet<>()).add(id);
+                }
+            }
+        }
+    }
+
+    private static <ID> void removeDocument(Map<ID, String[]> documents, Map<String, Set<ID>>[] postings, ID id) {
+        String[] values = documents.remove(id);
+        if (values == null) {
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                for (String trigram : getTrigrams(values[i])) {
+                    Set<ID> ids = postings[i].get(trigram);
+                    if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                        postings[i].remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Set<String> getTrigrams(String value) {
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + TRIGRAM_LENGTH <= value.length(); i++) {
+            trigrams.add(value.substring(i, i + TRIGRAM_LENGTH));
+        }
+        return trigrams;
+    }
+
+    private static boolean matches(SearchOperation operation, String indexedValue, String upperValue) {
+        switch (operation) {
+            case STARTS:
+                return indexedValue.startsWith(upperValue);
+            case ENDS:
+                return indexedValue.endsWith(upperValue);
+            case LIKE:
+                return indexedValue.contains(upperValue);
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+    }
+
+    /**
+     * Entity indexed with its values, or removed when the values are null
+     */
+    private static class Update<ID> {
+        private final ID id;
+        private final String[] values;
+
+        private Update(ID id, String[] values) {
+            this.id = id;
+            this.values = values;
+        }
+
+        private void apply(Map<ID, String[]> documents, Map<String, Set<ID>>[] postings) {
+            removeDocument(documents, postings, id);
+            if (values != null) {
+                addDocument(documents, postings, id, values);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.codehedgehog.strawberry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Database-specific SQL for bulk upserts.
+ */
+public enum UpsertDialect {
+    /**
+     * PostgreSQL's "INSERT ... ON CONFLICT ... DO UPDATE"
+     */
+    POSTGRESQL {
+        @Override
+        public String getUpsertSql(EntityTableMapping<?> mapping) {
+            List<String> columnNames = mapping.getColumnNames();
+            StringJoiner updates = getUpdates(mapping, "EXCLUDED.", "t.");
+            return "INSERT INTO " + mapping.getTableName() + " AS t (" + String.join(", ", columnNames)
+                    + ") VALUES (" + getPlaceholders(columnNames.size()) + ") ON CONFLICT ("
+                    + String.join(", ", mapping.getIdColumnNames()) + ")"
+                    + (updates.length() > 0 ? " DO UPDATE SET " + updates : " DO NOTHING");
+        }
+    },
+    /**
+     * MySQL's and MariaDB's "INSERT ... ON DUPLICATE KEY UPDATE"
+     */
+    MYSQL {
+        @Override
+        public String getUpsertSql(EntityTableMapping<?> mapping) {
+            List<String> columnNames = mapping.getColumnNames();
+            StringJoiner updates = new StringJoiner(", ");
+            for (String columnName : mapping.getUpdatedColumnNames()) {
+                updates.add(columnName + " = VALUES(" + columnName + ")");
+            }
+            String versionColumnName = mapping.getVersionColumnName();
+            if (versionColumnName != null) {
+                updates.add(versionColumnName + " = " + versionColumnName + " + 1");
+            }
+            if (updates.length() == 0) {
+                // an update leaving the row unchanged, as there is no "DO NOTHING"
+                String idColumnName = mapping.getIdColumnNames().get(0);
+                updates.add(idColumnName + " = " + idColumnName);
+            }
+            return "INSERT INTO " + mapping.getTableName() + " (" + String.join(", ", columnNames) + ") VALUES ("
+                    + getPlaceholders(columnNames.size()) + ") ON DUPLICATE KEY UPDATE " + updates;
+        }
+    },
+    /**
+     * H2's "MERGE ... USING DUAL", with the values compared and assigned directly since H2 cannot type parameters
+     * selected as a source row
+     */
+    MERGE {
+        @Override
+        public String getUpsertSql(EntityTableMapping<?> mapping) {
+            List<String> columnNames = mapping.getColumnNames();
+            StringJoiner matches = new StringJoiner(" AND ");
+            for (String idColumnName : mapping.getIdColumnNames()) {
+                matches.add("t." + idColumnName + " = ?");
+            }
+            StringJoiner updates = new StringJoiner(", ");
+            for (String columnName : mapping.getUpdatedColumnNames()) {
+                updates.add(columnName + " = ?");
+            }
+            String versionColumnName = mapping.getVersionColumnName();
+            if (versionColumnName != null) {
+                updates.add(versionColumnName + " = t." + versionColumnName + " + 1");
+            }
+            return "MERGE INTO " + mapping.getTableName() + " t USING DUAL ON (" + matches + ")"
+                    + (updates.length() > 0 ? " WHEN MATCHED THEN UPDATE SET " + updates : "")
+                    + " WHEN NOT MATCHED THEN INSERT (" + String.join(", ", columnNames) + ") VALUES ("
+                    + getPlaceholders(columnNames.size()) + ")";
+        }
+
+        @Override
+        public Object[] getUpsertValues(EntityTableMapping<?> mapping, Object[] columnValues) {
+            List<String> columnNames = mapping.getColumnNames();
+            List<Object> upsertValues = new ArrayList<>(columnValues.length * 2);
+            for (String idColumnName : mapping.getIdColumnNames()) {
+                upsertValues.add(columnValues[columnNames.indexOf(idColumnName)]);
+            }
+            for (String columnName : mapping.getUpdatedColumnNames()) {
+                upsertValues.add(columnValues[columnNames.indexOf(columnName)]);
+            }
+            upsertValues.addAll(Arrays.asList(columnValues));
+            return upsertValues.toArray();
+        }
+    };
+
+    /**
+     * Gets the statement inserting or updating a single row, with its parameters in the order of
+     * {@link #getUpsertValues(EntityTableMapping, Object[])}
+     * @param mapping table mapping of the entity
+     * @return upsert statement
+     */
+    public abstract String getUpsertSql(EntityTableMapping<?> mapping);
+
+    /**
+     * Arranges the values of a row as the parameters of the upsert statement, by default one per column in the
+     * order of {@link EntityTableMapping#getColumnNames()}
+     * @param mapping table mapping of the entity
+     * @param columnValues values of the row's columns
+     * @return upsert statement parameters
+     */
+    public Object[] getUpsertValues(EntityTableMapping<?> mapping, Object[] columnValues) {
+        return columnValues;
+    }
+
+    /**
+     * Gets the statement counting how many of a number of rows already exist, with one positional parameter per ID
+     * column for each row in the order of {@link EntityTableMapping#getIdColumnNames()}
+     * @param mapping table mapping of the entity
+     * @param rows number of rows to check
+     * @return count statement
+     */
+    public String getExistingCountSql(EntityTableMapping<?> mapping, int rows) {
+        List<String> idColumnNames = mapping.getIdColumnNames();
+        String sql = "SELECT COUNT(*) FROM " + mapping.getTableName() + " WHERE ";
+        if (idColumnNames.size() == 1) {
+            return sql + idColumnNames.get(0) + " IN (" + getPlaceholders(rows) + ")";
+        }
+        StringJoiner rowMatch = new StringJoiner(" AND ", "(", ")");
+        for (String idColumnName : idColumnNames) {
+            rowMatch.add(idColumnName + " = ?");
+        }
+        return sql + String.join(" OR ", Collections.nCopies(rows, rowMatch.toString()));
+    }
+
+    /**
+     * Picks the dialect for a database by its product name
+     * @param databaseName database product name
+     * @return dialect to use
+     * @throws IllegalStateException if upserts are not supported on the database
+     */
+    public static UpsertDialect forDatabase(String databaseName) {
+        String name = databaseName == null ? "" : databaseName.toLowerCase();
+        if (name.contains("postgres")) {
+            return POSTGRESQL;
+        } else if (name.contains("mysql") || name.contains("mariadb")) {
+            return MYSQL;
+        } else if (name.equals("h2")) {
+            return MERGE;
+        }
+        throw new IllegalStateException("Upserts are not supported on " + databaseName);
+    }
+
+    /**
+     * Gets the assignments of an update overwriting each updatable column with its new value and incrementing the
+     * version, if any
+     * @param mapping table mapping of the entity
+     * @param newRowPrefix prefix referring to the new values
+     * @param existingRowPrefix prefix referring to the existing row
+     * @return update assignments, empty if there is nothing to update
+     */
+    private static StringJoiner getUpdates(EntityTableMapping<?> mapping, String newRowPrefix,
+                                           String existingRowPrefix) {
+        StringJoiner updates = new StringJoiner(", ");
+        for (String columnName : mapping.getUpdatedColumnNames()) {
+            updates.add(columnName + " = " + newRowPrefix + columnName);
+        }
+        String versionColumnName = mapping.getVersionColumnName();
+        if (versionColumnName != null) {
+            updates.add(versionColumnName + " = " + existingRowPrefix + versionColumnName + " + 1");
+        }
+        return updates;
+    }
+
+    private static String getPlaceholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+}
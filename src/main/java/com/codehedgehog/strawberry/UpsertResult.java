@@ -0,0 +1,26 @@
+package com.codehedgehog.strawberry;
+
+/**
+ * Counts of the rows inserted and updated by a bulk upsert.
+ */
+public class UpsertResult {
+    private final long inserted;
+    private final long updated;
+
+    public UpsertResult(long inserted, long updated) {
+        this.inserted = inserted;
+        this.updated = updated;
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public UpsertResult add(UpsertResult other) {
+        return new UpsertResult(this.inserted + other.inserted, this.updated + other.updated);
+    }
+}
@@ -0,0 +1,122 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.ManyToOne;
+import javax.persistence.criteria.JoinType;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class AssociationFilterTests {
+
+    @Autowired
+    private TestOrderService testOrderService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Before
+    public void setUp() {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            entityManager.createQuery("delete from TestOrderLine").executeUpdate();
+            entityManager.createQuery("delete from TestOrder").executeUpdate();
+            entityManager.createQuery("delete from TestCustomer").executeUpdate();
+            TestCustomer acme = new TestCustomer(1, "acme", "east");
+            TestCustomer globex = new TestCustomer(2, "globex", "west");
+            TestOrder first = new TestOrder(1, acme);
+            TestOrder second = new TestOrder(2, acme);
+            TestOrder third = new TestOrder(3, globex);
+            for (Object entity : Arrays.asList(acme, globex, first, second, third,
+                    new TestOrderLine(1, first, "widget"), new TestOrderLine(2, first, "widget"),
+                    new TestOrderLine(3, first, "gadget"), new TestOrderLine(4, second, "gadget"),
+                    new TestOrderLine(5, third, "widget"))) {
+                entityManager.persist(entity);
+            }
+            return null;
+        });
+        StatementCapture.clear();
+    }
+
+    @Test
+    public void singularAssociationIsJoinedOncePerQuery() {
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("filter.customer.name", new String[] {"acme"});
+        parameters.put("filter.customer.region", new String[] {"east"});
+        parameters.put("sort", new String[] {"customer.name", "id"});
+        assertEquals(Arrays.asList(1, 2), getIds(() -> testOrderService.getObjects(parameters)));
+        String sql = getOrderStatement();
+        assertEquals(1, countOccurrences(sql, " join "));
+    }
+
+    @Test
+    public void collectionIsTestedWithExistsWithoutDuplicatingRows() {
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("filter.lines.product", new String[] {"widget"});
+        // the first order has two matching lines but is returned once
+        assertEquals(Arrays.asList(1, 3), getIds(() -> testOrderService.getObjects(parameters)));
+        String sql = getOrderStatement();
+        assertTrue(sql.contains("exists"));
+        assertEquals(0, countOccurrences(sql.substring(0, sql.indexOf("exists")), " join "));
+    }
+
+    @Test
+    public void collectionAndSingularAssociationTogetherPageCorrectly() {
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("filter.lines.product", new String[] {"widget", "gadget"});
+        parameters.put("filter.customer.region", new String[] {"east"});
+        parameters.put("count", new String[] {"1"});
+        ObjectPage<TestOrder> page = testOrderService.getObjectPage(parameters);
+        assertEquals(1, page.getObjects().size());
+        assertEquals(2, page.getTotal());
+    }
+
+    @Test
+    public void parameterizedFieldWhichIsNotACollectionIsJoinedAsSingular() {
+        JoinType[] joinTypes = JoinRegistry.getJoinTypes(Shipment.class, new String[] {"carrier", "name"});
+        assertEquals(JoinType.LEFT, joinTypes[0]);
+        assertNull(joinTypes[1]);
+        assertFalse(JoinRegistry.isCollectionPath(joinTypes));
+    }
+
+    private String getOrderStatement() {
+        return StatementCapture.getStatements().stream().filter(sql -> sql.contains("from test_order "))
+                .findFirst().orElseThrow(IllegalStateException::new);
+    }
+
+    private List<Integer> getIds(Supplier<List<TestOrder>> orders) {
+        return orders.get().stream().map(TestOrder::getId).collect(Collectors.toList());
+    }
+
+    private static int countOccurrences(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static class Shipment {
+        @ManyToOne
+        private Carrier<String> carrier;
+    }
+
+    private static class Carrier<K> {
+        private K name;
+    }
+}
@@ -0,0 +1,72 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class BatchQueryExecutorTests {
+
+    @Autowired
+    private TestModelRepository testModelRepository;
+
+    @Autowired
+    private TestModelService testModelService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Before
+    public void setUp() {
+        testModelRepository.deleteAllInBatch();
+        testModelRepository.save(new TestModel(1, "alpha", 1));
+    }
+
+    @Test
+    public void queriesAfterAFailureStillReturnResults() {
+        BatchQueryResult result = new BatchQueryExecutor(transactionManager).execute(this.createBatchQuery());
+        assertEquals("alpha", result.<TestModel>getResult("before").getName());
+        assertEquals("alpha", result.<TestModel>getResult("after").getName());
+        assertTrue(result.getErrors().get("failing") instanceof IllegalStateException);
+    }
+
+    @Test
+    public void failuresDoNotRollBackTheCallersTransaction() {
+        BatchQueryExecutor batchQueryExecutor = new BatchQueryExecutor(transactionManager);
+        new TransactionTemplate(transactionManager).execute(status -> {
+            testModelRepository.save(new TestModel(2, "beta", 2));
+            BatchQueryResult result = batchQueryExecutor.execute(this.createBatchQuery());
+            assertEquals(1, result.getErrors().size());
+            return null;
+        });
+        assertTrue(testModelRepository.existsById(2));
+    }
+
+    private BatchQuery createBatchQuery() {
+        return new BatchQuery()
+                .get("before", testModelService, 1)
+                .get("failing", new FailingTestModelService(testModelRepository), 1)
+                .get("after", testModelService, 1);
+    }
+
+    private static class FailingTestModelService extends RestfulService<TestModelRepository, TestModel, Integer> {
+
+        FailingTestModelService(TestModelRepository testModelRepository) {
+            super(testModelRepository);
+        }
+
+        @Override
+        protected TestModel getObject(Integer objectId) {
+            throw new IllegalStateException("Lookup failed");
+        }
+    }
+}
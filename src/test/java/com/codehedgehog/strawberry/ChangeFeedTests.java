@@ -0,0 +1,160 @@
+package com.codehedgehog.strawberry;
+
+import com.codehedgehog.strawberry.exceptions.BadRequestException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class ChangeFeedTests {
+
+    @Autowired
+    private TestModelRepository testModelRepository;
+
+    @Autowired
+    private TestModelService testModelService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Before
+    public void setUp() {
+        testModelRepository.deleteAllInBatch();
+    }
+
+    @Test
+    public void changesCommittedLateInTheSameMillisecondAreReported() {
+        Date changeTime = new Date();
+        testModelRepository.save(getModel(1, changeTime));
+        ChangeFeed<TestModel, Integer> feed = testModelService.getChanges(Collections.emptyMap());
+        assertEquals(1, feed.getChangedObjects().size());
+
+        // changed at the same time as the first, but committed after the feed was read
+        testModelRepository.save(getModel(2, changeTime));
+        ChangeFeed<TestModel, Integer> nextFeed = testModelService.getChanges(getTokenParameters(feed));
+        assertTrue(getIds(nextFeed).contains(2));
+    }
+
+    @Test
+    public void deletionsSinceTheTokenAreReported() {
+        // without a lag the token is after the creation of the new store, which knows every deletion since
+        testModelService.setTombstoneStore(new InMemoryTombstoneStore<>());
+        testModelService.setChangeSafetyLag(0);
+        try {
+            testModelRepository.save(getModel(1, new Date()));
+            ChangeFeed<TestModel, Integer> feed = testModelService.getChanges(Collections.emptyMap());
+            testModelService.deleteObject(1);
+            ChangeFeed<TestModel, Integer> nextFeed = testModelService.getChanges(getTokenParameters(feed));
+            assertEquals(Collections.singletonList(1), nextFeed.getDeletedIds());
+            assertFalse(nextFeed.isResyncRequired());
+        } finally {
+            testModelService.setChangeSafetyLag(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Test
+    public void tokensFromBeforeTheTombstoneStoreRequireResync() {
+        Map<String, String[]> parameters = Collections.singletonMap("changedSince",
+                new String[] {ChangeToken.encode(System.currentTimeMillis() - 60000)});
+        testModelService.setTombstoneStore(new InMemoryTombstoneStore<>());
+        assertTrue(testModelService.getChanges(parameters).isResyncRequired());
+    }
+
+    @Test
+    public void upsertsAreReported() {
+        ChangeFeed<TestModel, Integer> feed = testModelService.getChanges(Collections.emptyMap());
+        // an old modification time on the upserted object is replaced by the time of the upsert
+        testModelService.upsertObjects(Collections.singletonList(getModel(3, new Date(0))), 10, 100);
+        assertEquals(Collections.singletonList(3), getIds(testModelService.getChanges(getTokenParameters(feed))));
+    }
+
+    @Test
+    public void deletionsAreRecordedWhenTheyCommit() {
+        InMemoryTombstoneStore<Integer> tombstoneStore = new InMemoryTombstoneStore<>();
+        testModelService.setTombstoneStore(tombstoneStore);
+        testModelRepository.save(getModel(1, new Date()));
+        testModelRepository.save(getModel(2, new Date()));
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.execute(status -> {
+            testModelService.deleteObject(1);
+            assertTrue(tombstoneStore.getDeletedSince(0).isEmpty());
+            return null;
+        });
+        assertEquals(Collections.singleton(1), tombstoneStore.getDeletedSince(0).keySet());
+
+        transactionTemplate.execute(status -> {
+            testModelService.deleteObject(2);
+            status.setRollbackOnly();
+            return null;
+        });
+        assertEquals(Collections.singleton(1), tombstoneStore.getDeletedSince(0).keySet());
+    }
+
+    @Test
+    public void tombstonesRecordedOutOfOrderAreKeptInTimeOrder() {
+        long base = System.currentTimeMillis() + 1000;
+        InMemoryTombstoneStore<Integer> tombstoneStore = new InMemoryTombstoneStore<>(2);
+        tombstoneStore.record(1, base + 200);
+        tombstoneStore.record(2, base + 100);
+        assertEquals(Arrays.asList(2, 1), new ArrayList<>(tombstoneStore.getDeletedSince(base + 100).keySet()));
+
+        // the oldest by time is discarded, not the first recorded
+        tombstoneStore.record(3, base + 300);
+        assertEquals(Arrays.asList(1, 3), new ArrayList<>(tombstoneStore.getDeletedSince(base).keySet()));
+        assertFalse(tombstoneStore.isRetainedSince(base + 100));
+        assertTrue(tombstoneStore.isRetainedSince(base + 101));
+    }
+
+    @Test
+    public void limitedFeedsContinueWhereTheyStopped() {
+        long changeTime = System.currentTimeMillis() - 60000;
+        for (int id = 1; id <= 7; id++) {
+            testModelRepository.save(getModel(id, new Date(id <= 5 ? changeTime : changeTime + 1)));
+        }
+        List<Integer> ids = new ArrayList<>();
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("count", new String[] {"2"});
+        ChangeFeed<TestModel, Integer> feed;
+        do {
+            feed = testModelService.getChanges(parameters);
+            assertTrue(feed.getChangedObjects().size() <= 2);
+            ids.addAll(getIds(feed));
+            parameters.put("changedSince", new String[] {feed.getNextToken()});
+        } while (feed.hasMoreChanges());
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7), ids);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void nonPositiveCountIsRejected() {
+        testModelService.getChanges(Collections.singletonMap("count", new String[] {"0"}));
+    }
+
+    private static TestModel getModel(int id, Date modified) {
+        TestModel model = new TestModel(id, "model" + id, id);
+        model.setModified(modified);
+        return model;
+    }
+
+    private static Map<String, String[]> getTokenParameters(ChangeFeed<TestModel, Integer> feed) {
+        return Collections.singletonMap("changedSince", new String[] {feed.getNextToken()});
+    }
+
+    private static List<Integer> getIds(ChangeFeed<TestModel, Integer> feed) {
+        List<Integer> ids = new ArrayList<>();
+        for (TestModel model : feed.getChangedObjects()) {
+            ids.add(model.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,93 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class EstimatedTotalTests {
+
+    @Autowired
+    private TestModelRepository testModelRepository;
+
+    @Autowired
+    private TestModelService testModelService;
+
+    @Before
+    public void setUp() {
+        testModelRepository.deleteAllInBatch();
+        this.saveModels(0, 20);
+        StatementCapture.clear();
+    }
+
+    @Test
+    public void countsUpToTheLimitAreExact() {
+        Specification<TestModel> specification = new GenericSpecification<>(TestModel.class,
+                new SearchCriteria("quantity", SearchOperation.LESS_THAN, "10"));
+        assertEquals(10, testModelRepository.countUpTo(specification, 10));
+        assertEquals(10, testModelRepository.countUpTo(specification, 100));
+    }
+
+    @Test
+    public void countsOverTheLimitReadOneId() {
+        assertEquals(6, testModelRepository.countUpTo(null, 5));
+        List<String> statements = StatementCapture.getStatements();
+        assertEquals(1, statements.size());
+        assertTrue(statements.get(0).toLowerCase().contains("limit"));
+    }
+
+    @Test
+    public void tableRowCountIsRemembered() {
+        long estimate = testModelRepository.estimateCount(null);
+        this.saveModels(20, 40);
+        assertEquals(estimate, testModelRepository.estimateCount(null));
+        assertFalse(StatementCapture.getStatements().stream().anyMatch(
+                statement -> statement.toLowerCase().startsWith("select count(")));
+    }
+
+    @Test
+    public void totalsOverTheLimitAreEstimatedFromASample() {
+        testModelRepository.deleteAllInBatch();
+        List<TestModel> models = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            models.add(new TestModel(i, "model" + i, i % 10));
+        }
+        testModelRepository.upsertAll(models, 1000);
+        StatementCapture.clear();
+
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("filter.quantity.less", new String[] {"8"});
+        parameters.put("count", new String[] {"10"});
+        parameters.put("total", new String[] {"estimate"});
+        ObjectPage<TestModel> page = testModelService.getObjectPage(parameters);
+        assertEquals(10, page.getObjects().size());
+        assertFalse(page.isExact());
+        assertTrue(page.getTotal() > 10000 && page.getTotal() < 20000);
+        // only the sample windows are counted, never every match
+        assertTrue(StatementCapture.getStatements().stream().map(String::toLowerCase)
+                .filter(statement -> statement.startsWith("select count("))
+                .allMatch(statement -> statement.contains(" between ")));
+    }
+
+    private void saveModels(int from, int to) {
+        List<TestModel> models = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            models.add(new TestModel(i, "model" + i, i));
+        }
+        testModelRepository.saveAll(models);
+    }
+}
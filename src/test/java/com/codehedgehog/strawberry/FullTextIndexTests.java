@@ -0,0 +1,265 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class FullTextIndexTests {
+
+    @Autowired
+    private TestModelRepository testModelRepository;
+
+    @Autowired
+    private TestModelService testModelService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TrigramIndex<TestModel, Integer> fullTextIndex;
+
+    @Before
+    public void setUp() {
+        testModelRepository.deleteAllInBatch();
+        fullTextIndex = new TrigramIndex<>(TestModel.class);
+        testModelService.setFullTextIndex(fullTextIndex);
+    }
+
+    @After
+    public void tearDown() {
+        testModelService.setFullTextIndex(null);
+    }
+
+    @Test
+    public void specificationsSeeIndexChangesMadeAfterTheyWereCreated() {
+        GenericSpecification<TestModel> specification = new GenericSpecification<>(TestModel.class,
+                new SearchCriteria("name", SearchOperation.LIKE, "alp"), fullTextIndex);
+        TestModel model = testModelRepository.save(new TestModel(1, "alpha", 1));
+        assertEquals(0, testModelRepository.findAll(specification).size());
+        fullTextIndex.index(model);
+        assertEquals(1, testModelRepository.findAll(specification).size());
+    }
+
+    @Test
+    public void savesAreIndexedOnlyOnceCommitted() {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            testModelService.saveObject(new TestModel(1, "alpha", 1));
+            assertTrue(this.findAlpha().isEmpty());
+            return null;
+        });
+        assertEquals(1, this.findAlpha().size());
+    }
+
+    @Test
+    public void rolledBackSavesAreNotIndexed() {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            testModelService.saveObject(new TestModel(1, "alpha", 1));
+            status.setRollbackOnly();
+            return null;
+        });
+        assertTrue(this.findAlpha().isEmpty());
+    }
+
+    @Test
+    public void upsertsIndexObjectsReadOnce() {
+        AtomicBoolean iterated = new AtomicBoolean();
+        Iterable<TestModel> objects = () -> {
+            if (iterated.getAndSet(true)) {
+                throw new IllegalStateException("Objects may only be read once");
+            }
+            return Arrays.asList(new TestModel(1, "alpha", 1), new TestModel(2, "alpine", 2)).iterator();
+        };
+        testModelService.upsertObjects(objects, 10, 1);
+        assertEquals(2, this.findAlpha().size());
+    }
+
+    @Test
+    public void deletesAreRemovedFromTheIndex() {
+        testModelService.saveObject(new TestModel(1, "alpha", 1));
+        testModelService.deleteObject(1);
+        assertTrue(this.findAlpha().isEmpty());
+    }
+
+    @Test
+    public void searchRanksTheClosestMatchesFirst() {
+        testModelService.saveObject(new TestModel(1, "gamma", 1));
+        testModelService.saveObject(new TestModel(2, "alphx", 2));
+        testModelService.saveObject(new TestModel(3, "alpha", 3));
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("search", new String[] {"alpha"});
+        assertEquals(Arrays.asList("alpha", "alphx"), getNames(testModelService.getObjects(parameters)));
+
+        parameters.put("count", new String[] {"1"});
+        ObjectPage<TestModel> page = testModelService.getObjectPage(parameters);
+        assertEquals(Collections.singletonList("alpha"), getNames(page.getObjects()));
+        assertEquals(2, page.getTotal());
+        assertTrue(page.isExact());
+    }
+
+    @Test
+    public void searchTotalIsAnEstimateOnceTheSearchIsCutOff() {
+        List<TestModel> models = new ArrayList<>();
+        for (int id = 1; id <= 1001; id++) {
+            models.add(new TestModel(id, "model" + id, id));
+        }
+        testModelService.upsertObjects(models, 500, 2000);
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("search", new String[] {"model"});
+        parameters.put("count", new String[] {"10"});
+        ObjectPage<TestModel> page = testModelService.getObjectPage(parameters);
+        assertEquals(10, page.getObjects().size());
+        assertEquals(1000, page.getTotal());
+        assertFalse(page.isExact());
+    }
+
+    @Test
+    public void indexedIdsAreBoundPaddedToAPowerOfTwo() {
+        for (int id = 1; id <= 3; id++) {
+            testModelService.saveObject(new TestModel(id, "alpha" + id, id));
+        }
+        StatementCapture.clear();
+        List<TestModel> models = testModelService.getObjects(
+                Collections.singletonMap("filter.name.like", new String[] {"alp"}));
+        assertEquals(3, models.size());
+        List<String> statements = StatementCapture.getStatements();
+        assertEquals(1, statements.size());
+        assertEquals(4, statements.get(0).chars().filter(character -> character == '?').count());
+    }
+
+    @Test
+    public void savedIndexIsReloadedWithTheChangesJournaledSince() throws IOException {
+        Path indexFile = temporaryFolder.getRoot().toPath().resolve("test-model.idx");
+        TrigramIndex<TestModel, Integer> savedIndex = new TrigramIndex<>(TestModel.class, indexFile);
+        savedIndex.rebuild(Arrays.asList(new TestModel(1, "alpha", 1), new TestModel(2, "beta", 2)));
+        savedIndex.index(new TestModel(3, "alpine", 3));
+        savedIndex.remove(2);
+        savedIndex.close();
+        // a record cut short when the process stopped is dropped
+        Files.write(indexFile.resolveSibling("test-model.idx.journal"), new byte[] {0, 0, 1},
+                StandardOpenOption.APPEND);
+
+        TrigramIndex<TestModel, Integer> loadedIndex = new TrigramIndex<>(TestModel.class, indexFile);
+        try {
+            assertEquals(new HashSet<>(Arrays.asList(1, 3)), loadedIndex.find("name", SearchOperation.LIKE, "alp"));
+            assertTrue(loadedIndex.search("beta", 10).isEmpty());
+            assertEquals(2, loadedIndex.getEntityCount());
+            assertTrue(loadedIndex.getCompleteUpTo() >= 0);
+            loadedIndex.index(new TestModel(4, "alps", 4));
+        } finally {
+            loadedIndex.close();
+        }
+        TrigramIndex<TestModel, Integer> reloadedIndex = new TrigramIndex<>(TestModel.class, indexFile);
+        try {
+            assertEquals(3, reloadedIndex.getEntityCount());
+        } finally {
+            reloadedIndex.close();
+        }
+    }
+
+    @Test
+    public void journalOfAnEarlierSnapshotIsNotReplayed() throws IOException {
+        Path indexFile = temporaryFolder.getRoot().toPath().resolve("test-model.idx");
+        Path journalFile = indexFile.resolveSibling("test-model.idx.journal");
+        TrigramIndex<TestModel, Integer> savedIndex = new TrigramIndex<>(TestModel.class, indexFile);
+        savedIndex.rebuild(Collections.singletonList(new TestModel(1, "alpha", 1)));
+        savedIndex.index(new TestModel(2, "alpine", 2));
+        byte[] earlierJournal = Files.readAllBytes(journalFile);
+        savedIndex.remove(2);
+        savedIndex.save();
+        savedIndex.close();
+        // as if the process stopped after writing the snapshot but before starting its journal
+        Files.write(journalFile, earlierJournal);
+
+        TrigramIndex<TestModel, Integer> loadedIndex = new TrigramIndex<>(TestModel.class, indexFile);
+        try {
+            assertEquals(Collections.singleton(1), loadedIndex.find("name", SearchOperation.LIKE, "alp"));
+        } finally {
+            loadedIndex.close();
+        }
+    }
+
+    @Test
+    public void changesDuringARebuildAreKept() {
+        fullTextIndex.index(new TestModel(1, "alpha", 1));
+        Iterable<TestModel> scan = () -> new Iterator<TestModel>() {
+            private final Iterator<TestModel> models = Arrays.asList(new TestModel(1, "alpha", 1),
+                    new TestModel(2, "alpaca", 2)).iterator();
+
+            @Override
+            public boolean hasNext() {
+                return models.hasNext();
+            }
+
+            @Override
+            public TestModel next() {
+                TestModel model = models.next();
+                if (model.getId() == 2) {
+                    // committed while the scan is under way, after it read the first model
+                    fullTextIndex.remove(1);
+                    fullTextIndex.index(new TestModel(3, "alpine", 3));
+                }
+                return model;
+            }
+        };
+        fullTextIndex.rebuild(scan);
+        assertEquals(new HashSet<>(Arrays.asList(2, 3)), this.findAlpha());
+    }
+
+    @Test
+    public void staleIndexesAreRebuilt() {
+        Path indexFile = temporaryFolder.getRoot().toPath().resolve("test-model.idx");
+        TestModel model = new TestModel(1, "alpha", 1);
+        model.setModified(new Date(System.currentTimeMillis() - 60000));
+        testModelRepository.save(model);
+        TrigramIndex<TestModel, Integer> savedIndex = new TrigramIndex<>(TestModel.class, indexFile);
+        testModelService.setFullTextIndex(savedIndex);
+        assertTrue(testModelService.rebuildFullTextIndexIfStale());
+        assertFalse(testModelService.rebuildFullTextIndexIfStale());
+        savedIndex.close();
+
+        TrigramIndex<TestModel, Integer> loadedIndex = new TrigramIndex<>(TestModel.class, indexFile);
+        try {
+            testModelService.setFullTextIndex(loadedIndex);
+            assertFalse(testModelService.rebuildFullTextIndexIfStale());
+            // changed without going through the service
+            model.setModified(new Date(System.currentTimeMillis() + 60000));
+            testModelRepository.save(model);
+            assertTrue(testModelService.rebuildFullTextIndexIfStale());
+            testModelRepository.save(new TestModel(2, "beta", 2));
+            assertTrue(testModelService.rebuildFullTextIndexIfStale());
+            assertEquals(2, loadedIndex.getEntityCount());
+        } finally {
+            loadedIndex.close();
+        }
+    }
+
+    private static List<String> getNames(List<TestModel> models) {
+        return models.stream().map(TestModel::getName).collect(Collectors.toList());
+    }
+
+    private Set<Integer> findAlpha() {
+        return fullTextIndex.find("name", SearchOperation.LIKE, "alp");
+    }
+}
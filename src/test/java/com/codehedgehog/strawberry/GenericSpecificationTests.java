@@ -0,0 +1,104 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class GenericSpecificationTests {
+
+    @Autowired
+    private TestModelRepository testModelRepository;
+
+    @Autowired
+    private TestModelService testModelService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Before
+    public void setUp() {
+        testModelRepository.deleteAllInBatch();
+        testModelRepository.saveAll(Arrays.asList(new TestModel(1, "alpha", 1), new TestModel(2, "beta", 2),
+                new TestModel(3, "gamma", 3), new TestModel(4, "delta", 4)));
+        StatementCapture.clear();
+    }
+
+    @Test
+    public void filtersWithDifferentValuesShareTheSameSql() {
+        String[] names = {"alpha", "beta", "gamma", "delta"};
+        for (int i = 0; i < names.length; i++) {
+            Map<String, String[]> parameters = new HashMap<>();
+            parameters.put("filter.name", new String[] {names[i]});
+            parameters.put("filter.quantity.greater", new String[] {String.valueOf(i)});
+            List<TestModel> objects = testModelService.getObjects(parameters);
+            assertEquals(1, objects.size());
+            assertEquals(names[i], objects.get(0).getName());
+        }
+        assertEquals(1, new HashSet<>(StatementCapture.getStatements()).size());
+    }
+
+    @Test
+    public void composedSpecificationKeepsFilterValues() {
+        Specification<TestModel> specification = new SpecificationBuilder<>(TestModel.class)
+                .with(testModelService.getSearchCriteria(
+                        Collections.singletonMap("filter.name", new String[] {"beta"})))
+                .build();
+        Specification<TestModel> composedSpecification = Specification.<TestModel>where(
+                (root, query, criteriaBuilder) -> criteriaBuilder.lessThan(root.get("quantity"), 10))
+                .and(specification);
+        List<TestModel> objects = testModelRepository.findAll(composedSpecification);
+        assertEquals(1, objects.size());
+        assertEquals("beta", objects.get(0).getName());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parameterOutsideRepositoryFails() {
+        Specification<TestModel> specification = new SpecificationBuilder<>(TestModel.class)
+                .with(testModelService.getSearchCriteria(
+                        Collections.singletonMap("filter.quantity.greater", new String[] {"2"})))
+                .build();
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TestModel> query = criteriaBuilder.createQuery(TestModel.class);
+        Root<TestModel> root = query.from(TestModel.class);
+        specification.toPredicate(root, query, criteriaBuilder);
+    }
+
+    @Test
+    public void literalSpecificationWorksOutsideRepository() {
+        Specification<TestModel> specification = new SpecificationBuilder<>(TestModel.class, null, false)
+                .with(testModelService.getSearchCriteria(
+                        Collections.singletonMap("filter.quantity.greater", new String[] {"2"})))
+                .build();
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TestModel> query = criteriaBuilder.createQuery(TestModel.class);
+        Root<TestModel> root = query.from(TestModel.class);
+        query.where(specification.toPredicate(root, query, criteriaBuilder));
+        assertEquals(2, entityManager.createQuery(query).getResultList().size());
+    }
+
+    @Test
+    public void serviceFiltersWithRepositoryWithoutBaseClass() {
+        TestModelRepository plainRepository = new JpaRepositoryFactory(entityManager)
+                .getRepository(TestModelRepository.class);
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("filter.name.like", new String[] {"a"});
+        parameters.put("filter.quantity.greater", new String[] {"2"});
+        List<TestModel> objects = new TestModelService(plainRepository).getObjects(parameters);
+        assertEquals(2, objects.size());
+    }
+}
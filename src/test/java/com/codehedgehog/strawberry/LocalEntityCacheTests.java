@@ -0,0 +1,78 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LocalEntityCacheTests {
+
+    @Test
+    public void loadRacingWithEvictionIsNotCached() {
+        LocalEntityCache<Integer, TestModel> cache = new LocalEntityCache<>(10, 1, TimeUnit.MINUTES);
+        long generation = cache.getGeneration(1);
+        cache.evict(1);
+        cache.put(1, new TestModel(1, "stale", 1), generation);
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void loadRacingWithEvictAllIsNotCached() {
+        LocalEntityCache<Integer, TestModel> cache = new LocalEntityCache<>(10, 1, TimeUnit.MINUTES);
+        long generation = cache.getGeneration(1);
+        cache.evictAll();
+        cache.put(1, new TestModel(1, "stale", 1), generation);
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void cachedEntitiesAreCopies() {
+        LocalEntityCache<Integer, TestModel> cache = new LocalEntityCache<>(10, 1, TimeUnit.MINUTES);
+        TestModel model = new TestModel(1, "alpha", 1);
+        cache.put(1, model, cache.getGeneration(1));
+        model.setName("changed");
+        TestModel cachedModel = cache.get(1);
+        assertEquals("alpha", cachedModel.getName());
+        cachedModel.setName("changed");
+        assertEquals("alpha", cache.get(1).getName());
+    }
+
+    @Test
+    public void nestedStateIsCopiedKeepingSharedReferencesShared() {
+        LocalEntityCache<Integer, TestOrder> cache = new LocalEntityCache<>(10, 1, TimeUnit.MINUTES);
+        TestOrder order = new TestOrder(1, new TestCustomer(1, "acme", "east"));
+        order.getLines().add(new TestOrderLine(1, order, "widget"));
+        TestOrder returned = cache.put(1, order, cache.getGeneration(1));
+        assertNotSame(order, returned);
+        order.getLines().clear();
+        TestOrder cachedOrder = cache.get(1);
+        assertNotSame(order.getCustomer(), cachedOrder.getCustomer());
+        assertEquals("acme", cachedOrder.getCustomer().getName());
+        assertEquals(1, cachedOrder.getLines().size());
+        assertSame(cachedOrder, cachedOrder.getLines().get(0).getOrder());
+        cachedOrder.getLines().clear();
+        assertEquals(1, cache.get(1).getLines().size());
+    }
+
+    @Test
+    public void datesAreCopied() {
+        LocalEntityCache<Integer, TestModel> cache = new LocalEntityCache<>(10, 1, TimeUnit.MINUTES);
+        TestModel model = new TestModel(1, "alpha", 1);
+        model.setModified(new Date(1000));
+        cache.put(1, model, cache.getGeneration(1));
+        model.getModified().setTime(2000);
+        assertEquals(1000, cache.get(1).getModified().getTime());
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        LocalEntityCache<Integer, TestModel> cache = new LocalEntityCache<>(100, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, new TestModel(i, "model" + i, i), cache.getGeneration(i));
+        }
+        assertTrue(cache.getStatistics().getSize() <= 100);
+        assertNotNull(cache.get(999));
+    }
+}
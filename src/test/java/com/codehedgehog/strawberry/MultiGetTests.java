@@ -0,0 +1,137 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class MultiGetTests {
+
+    @Autowired
+    private TestModelRepository testModelRepository;
+
+    @Autowired
+    private TestModelService testModelService;
+
+    @Autowired
+    private TestEmbeddedIdModelRepository embeddedIdRepository;
+
+    @Autowired
+    private TestIdClassModelRepository idClassRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Before
+    public void setUp() {
+        testModelRepository.deleteAllInBatch();
+        embeddedIdRepository.deleteAllInBatch();
+        idClassRepository.deleteAllInBatch();
+        testModelRepository.saveAll(Arrays.asList(new TestModel(1, "alpha", 1), new TestModel(2, "beta", 2),
+                new TestModel(3, "gamma", 3), new TestModel(4, "delta", 4), new TestModel(5, "epsilon", 5)));
+        embeddedIdRepository.saveAll(Arrays.asList(
+                new TestEmbeddedIdModel(new TestModelKey("east", 1), "alpha"),
+                new TestEmbeddedIdModel(new TestModelKey("east", 2), "beta"),
+                new TestEmbeddedIdModel(new TestModelKey("west", 1), "gamma")));
+        idClassRepository.saveAll(Arrays.asList(new TestIdClassModel("east", 1, "alpha"),
+                new TestIdClassModel("east", 2, "beta"), new TestIdClassModel("west", 1, "gamma")));
+        StatementCapture.clear();
+    }
+
+    @Test
+    public void objectsKeepTheOrderOfTheIds() {
+        MultiGetResult<TestModel, Integer> result = testModelService.getObjects(Arrays.asList(3, 1, 5, 2));
+        assertEquals(Arrays.asList("gamma", "alpha", "epsilon", "beta"), getNames(result.getObjects()));
+        assertTrue(result.getMissingIds().isEmpty());
+    }
+
+    @Test
+    public void missingIdsAreReported() {
+        MultiGetResult<TestModel, Integer> result = testModelService.getObjects(Arrays.asList(4, 99, 1, 98));
+        assertEquals(Arrays.asList("delta", "alpha"), getNames(result.getObjects()));
+        assertEquals(Arrays.asList(99, 98), result.getMissingIds());
+    }
+
+    @Test
+    public void batchesArePaddedToPowersOfTwo() {
+        testModelRepository.findMultiple(Arrays.asList(1, 2, 3));
+        testModelRepository.findMultiple(Arrays.asList(1, 2, 3, 4));
+        assertEquals(1, new HashSet<>(StatementCapture.getStatements()).size());
+
+        testModelRepository.findMultiple(Arrays.asList(1, 2, 3, 4, 5));
+        assertEquals(2, new HashSet<>(StatementCapture.getStatements()).size());
+
+        StatementCapture.clear();
+        List<TestModel> models = testModelRepository.findMultiple(Arrays.asList(5, 4, 3, 2, 1), 2);
+        assertEquals(Arrays.asList("epsilon", "delta", "gamma", "beta", "alpha"), getNames(models));
+        // two batches of two and the last ID alone
+        assertEquals(3, StatementCapture.getStatements().size());
+        assertEquals(2, new HashSet<>(StatementCapture.getStatements()).size());
+    }
+
+    @Test
+    public void entitiesInThePersistenceContextAreNotQueried() {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            TestModel loadedModel = testModelRepository.findById(2).orElseThrow(IllegalStateException::new);
+            StatementCapture.clear();
+            List<TestModel> models = testModelRepository.findMultiple(Collections.singletonList(2));
+            assertSame(loadedModel, models.get(0));
+            assertTrue(StatementCapture.getStatements().isEmpty());
+            return null;
+        });
+    }
+
+    @Test
+    public void embeddedIdsAreFound() {
+        List<TestEmbeddedIdModel> models = embeddedIdRepository.findMultiple(Arrays.asList(
+                new TestModelKey("west", 1), new TestModelKey("east", 9), new TestModelKey("east", 1)));
+        assertEquals("gamma", models.get(0).getName());
+        assertNull(models.get(1));
+        assertEquals("alpha", models.get(2).getName());
+        assertEquals(1, StatementCapture.getStatements().size());
+    }
+
+    @Test
+    public void idClassIdsAreFound() {
+        List<TestIdClassModel> models = idClassRepository.findMultiple(Arrays.asList(
+                new TestModelKey("east", 2), new TestModelKey("west", 1), new TestModelKey("west", 2)));
+        assertEquals("beta", models.get(0).getName());
+        assertEquals("gamma", models.get(1).getName());
+        assertNull(models.get(2));
+        idClassRepository.findMultiple(Arrays.asList(new TestModelKey("east", 1), new TestModelKey("east", 2),
+                new TestModelKey("west", 1), new TestModelKey("west", 2)));
+        assertEquals(1, new HashSet<>(StatementCapture.getStatements()).size());
+    }
+
+    @Test
+    public void repositoryWithoutBaseClassFindsEachId() {
+        TestModelRepository plainRepository = new JpaRepositoryFactory(entityManager)
+                .getRepository(TestModelRepository.class);
+        List<TestModel> models = plainRepository.findMultiple(Arrays.asList(2, 99, 1));
+        assertEquals("beta", models.get(0).getName());
+        assertNull(models.get(1));
+        assertEquals("alpha", models.get(2).getName());
+        assertEquals(3, plainRepository.countUpTo(null, 2));
+        assertEquals(5, plainRepository.estimateCount(null));
+    }
+
+    private static List<String> getNames(List<TestModel> models) {
+        return models.stream().map(TestModel::getName).collect(Collectors.toList());
+    }
+}
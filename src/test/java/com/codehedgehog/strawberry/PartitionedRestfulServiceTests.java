@@ -0,0 +1,180 @@
+package com.codehedgehog.strawberry;
+
+import com.codehedgehog.strawberry.exceptions.BadRequestException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class PartitionedRestfulServiceTests {
+    private TestPartition oddPartition;
+    private TestPartition evenPartition;
+    private Map<String, TestModelRepository> partitions;
+    private TestModelPartitionedService testModelService;
+
+    @Before
+    public void setUp() {
+        oddPartition = new TestPartition("odd");
+        evenPartition = new TestPartition("even");
+        partitions = new LinkedHashMap<>();
+        partitions.put("odd", oddPartition.getRepository());
+        partitions.put("even", evenPartition.getRepository());
+        testModelService = new TestModelPartitionedService(partitions, (partition, searchCriteria) -> true,
+                Runnable::run);
+    }
+
+    @After
+    public void tearDown() {
+        oddPartition.close();
+        evenPartition.close();
+    }
+
+    @Test
+    public void savesAndDeletesGoToTheObjectsPartition() {
+        testModelService.saveObject(new TestModel(1, "alpha", 1));
+        testModelService.saveObject(new TestModel(2, "beta", 2));
+        assertEquals(Collections.singletonList(1), getIds(oddPartition.getRepository().findAll()));
+        assertEquals(Collections.singletonList(2), getIds(evenPartition.getRepository().findAll()));
+
+        testModelService.deleteObject(2);
+        assertEquals(1, oddPartition.getRepository().count());
+        assertEquals(0, evenPartition.getRepository().count());
+    }
+
+    @Test
+    public void upsertsAreSplitByPartition() {
+        UpsertResult result = testModelService.upsertObjects(Arrays.asList(new TestModel(1, "alpha", 1),
+                new TestModel(2, "beta", 2), new TestModel(3, "gamma", 3)), 10, 100);
+        assertEquals(3, result.getInserted());
+        assertEquals(2, oddPartition.getRepository().count());
+        assertEquals(1, evenPartition.getRepository().count());
+    }
+
+    @Test
+    public void mergedListsPlaceNullsAsTheDatabaseDoes() {
+        for (TestModel model : Arrays.asList(new TestModel(1, "b", 1), new TestModel(2, null, 2),
+                new TestModel(3, "a", 3), new TestModel(4, "c", 4), new TestModel(5, null, 5))) {
+            testModelService.saveObject(model);
+        }
+        // H2 sorts nulls below all other values
+        assertEquals(Arrays.asList(2, 5, 3, 1, 4), getIds(testModelService.getObjects(getSortParameters("name"))));
+        assertEquals(Arrays.asList(4, 1, 3, 2, 5), getIds(testModelService.getObjects(getSortParameters("-name"))));
+    }
+
+    @Test
+    public void changeFeedsMergeEveryPartition() {
+        long[] modified = {3000, 1000, 2000};
+        for (int i = 0; i < modified.length; i++) {
+            TestModel model = new TestModel(i + 1, "model" + i, i);
+            model.setModified(new Date(modified[i]));
+            testModelService.saveObject(model);
+        }
+        ChangeFeed<TestModel, Integer> changes = testModelService.getChanges(new HashMap<>());
+        assertEquals(Arrays.asList(2, 3, 1), getIds(changes.getChangedObjects()));
+    }
+
+    @Test
+    public void partitionsThatCannotMatchAreSkipped() {
+        testModelService.saveObject(new TestModel(1, "alpha", 1));
+        testModelService.saveObject(new TestModel(2, "alpha", 2));
+        // a filter on name is taken to mean only the odd partition can match
+        PartitionPruner partitionPruner = (partition, searchCriteria) -> "odd".equals(partition)
+                || searchCriteria.stream().noneMatch(criteria -> "name".equals(criteria.getKey()));
+        testModelService = new TestModelPartitionedService(partitions, partitionPruner, Runnable::run);
+        assertEquals(Collections.singletonList(1),
+                getIds(testModelService.getObjects(Collections.singletonMap("filter.name", new String[] {"alpha"}))));
+        assertEquals(Arrays.asList(1, 2), getIds(testModelService.getObjects(new HashMap<>())));
+    }
+
+    @Test
+    public void pagesAreMergedAcrossPartitions() {
+        for (int id = 1; id <= 30; id++) {
+            testModelService.saveObject(new TestModel(id, "model" + id, 30 - id));
+        }
+        Map<String, String[]> parameters = getSortParameters("quantity");
+        parameters.put("count", new String[] {"4"});
+        parameters.put("start", new String[] {"2"});
+        assertEquals(Arrays.asList(22, 21, 20, 19), getIds(testModelService.getObjects(parameters)));
+
+        parameters.put("start", new String[] {"7"});
+        ObjectPage<TestModel> page = testModelService.getObjectPage(parameters);
+        assertEquals(Arrays.asList(2, 1), getIds(page.getObjects()));
+        assertEquals(30, page.getTotal());
+        assertEquals(true, page.isExact());
+    }
+
+    @Test
+    public void partitionsAreQueriedInParallel() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            testModelService = new TestModelPartitionedService(partitions, (partition, searchCriteria) -> true,
+                    executor);
+            for (int id = 1; id <= 12; id++) {
+                testModelService.saveObject(new TestModel(id, "model" + id, id));
+            }
+            Map<String, String[]> parameters = getSortParameters("-id");
+            parameters.put("count", new String[] {"5"});
+            assertEquals(Arrays.asList(12, 11, 10, 9, 8), getIds(testModelService.getObjects(parameters)));
+            assertEquals(7, testModelService.getObject(7).getId().intValue());
+            MultiGetResult<TestModel, Integer> result = testModelService.getObjects(Arrays.asList(4, 13, 3));
+            assertEquals(Arrays.asList(4, 3), getIds(result.getObjects()));
+            assertEquals(Collections.singletonList(13), result.getMissingIds());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void lookupsByIdGoThroughTheEntityCache() {
+        LocalEntityCache<Integer, TestModel> entityCache = new LocalEntityCache<>(10, 1, TimeUnit.MINUTES);
+        testModelService.setEntityCache(entityCache);
+        testModelService.saveObject(new TestModel(1, "alpha", 1));
+        testModelService.saveObject(new TestModel(2, "beta", 2));
+
+        TestModel first = testModelService.getObject(2);
+        TestModel second = testModelService.getObject(2);
+        assertEquals("beta", second.getName());
+        assertNotSame(first, second);
+        assertEquals(Arrays.asList(1, 2), getIds(testModelService.getObjects(Arrays.asList(1, 2)).getObjects()));
+        assertEquals(2, entityCache.getStatistics().getHits());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void searchIsRejected() {
+        testModelService.getObjects(Collections.singletonMap("search", new String[] {"alpha"}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fullTextIndexIsRejected() {
+        testModelService.setFullTextIndex(new TrigramIndex<>(TestModel.class));
+    }
+
+    private static Map<String, String[]> getSortParameters(String sort) {
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("sort", new String[] {sort});
+        return parameters;
+    }
+
+    private static List<Integer> getIds(List<TestModel> models) {
+        return models.stream().map(TestModel::getId).collect(Collectors.toList());
+    }
+
+    private static class TestModelPartitionedService
+            extends PartitionedRestfulService<TestModelRepository, TestModel, Integer> {
+
+        TestModelPartitionedService(Map<String, TestModelRepository> partitions, PartitionPruner partitionPruner,
+                                    Executor executor) {
+            super(partitions, partitionPruner, model -> model.getId() % 2 == 0 ? "even" : "odd", executor);
+        }
+    }
+}
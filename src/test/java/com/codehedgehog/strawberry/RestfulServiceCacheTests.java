@@ -0,0 +1,132 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class RestfulServiceCacheTests {
+
+    @Autowired
+    private TestModelRepository testModelRepository;
+
+    @Autowired
+    private TestModelService testModelService;
+
+    @Autowired
+    private TestOrderService testOrderService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private LocalEntityCache<Integer, TestModel> entityCache;
+
+    @Before
+    public void setUp() {
+        testModelRepository.deleteAllInBatch();
+        testModelRepository.save(new TestModel(1, "alpha", 1));
+        entityCache = new LocalEntityCache<>(10, 1, TimeUnit.MINUTES);
+        testModelService.setEntityCache(entityCache);
+    }
+
+    @After
+    public void tearDown() {
+        testModelService.setEntityCache(null);
+        testOrderService.setEntityCache(null);
+    }
+
+    @Test
+    public void objectsAreReadThroughTheCache() {
+        assertEquals("alpha", testModelService.getObject(1).getName());
+        assertEquals("alpha", testModelService.getObject(1).getName());
+        assertEquals(1, entityCache.getStatistics().getHits());
+    }
+
+    @Test
+    public void savesInATransactionEvictAgainOnCommit() {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            TestModel model = testModelRepository.findById(1).orElseThrow(IllegalStateException::new);
+            model.setName("renamed");
+            testModelService.saveObject(model);
+            // another reader caches the committed value while the save is still uncommitted
+            entityCache.put(1, new TestModel(1, "alpha", 1), entityCache.getGeneration(1));
+            return null;
+        });
+        assertNull(entityCache.get(1));
+        assertEquals("renamed", testModelService.getObject(1).getName());
+    }
+
+    @Test
+    public void missesAndHitsAreBothDetachedCopies() {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            TestModel loaded = testModelService.getObject(1);
+            assertFalse(entityManager.contains(loaded));
+            TestModel cached = testModelService.getObject(1);
+            assertFalse(entityManager.contains(cached));
+            assertNotSame(loaded, cached);
+            assertFalse(entityManager.contains(testModelService.getObjects(Collections.singleton(1)).getObjects()
+                    .get(0)));
+            return null;
+        });
+        assertEquals(2, entityCache.getStatistics().getHits());
+    }
+
+    @Test
+    public void associationsAreCopiedAndUnloadedCollectionsLeftNull() {
+        this.saveOrder();
+        LocalEntityCache<Integer, TestOrder> orderCache = new LocalEntityCache<>(10, 1, TimeUnit.MINUTES);
+        testOrderService.setEntityCache(orderCache);
+        // read outside a transaction, so the lazy lines are never loaded
+        TestOrder order = testOrderService.getObject(1);
+        assertEquals("acme", order.getCustomer().getName());
+        assertNull(order.getLines());
+        assertNotSame(order.getCustomer(), testOrderService.getObject(1).getCustomer());
+    }
+
+    @Test
+    public void initializedProxiesAndCollectionsAreCopiedAsPlainObjects() {
+        this.saveOrder();
+        LocalEntityCache<Integer, TestOrder> orderCache = new LocalEntityCache<>(10, 1, TimeUnit.MINUTES);
+        new TransactionTemplate(transactionManager).execute(status -> {
+            TestOrder proxy = entityManager.getReference(TestOrder.class, 1);
+            assertEquals(1, proxy.getLines().size());
+            TestOrder copy = orderCache.put(1, proxy, orderCache.getGeneration(1));
+            assertEquals(TestOrder.class, copy.getClass());
+            assertEquals(ArrayList.class, copy.getLines().getClass());
+            // the line's reference back to its order reaches the copy, not the managed order
+            assertSame(copy, copy.getLines().get(0).getOrder());
+            return null;
+        });
+    }
+
+    private void saveOrder() {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            entityManager.createQuery("delete from TestOrderLine").executeUpdate();
+            entityManager.createQuery("delete from TestOrder").executeUpdate();
+            entityManager.createQuery("delete from TestCustomer").executeUpdate();
+            TestCustomer customer = new TestCustomer(1, "acme", "east");
+            TestOrder order = new TestOrder(1, customer);
+            entityManager.persist(customer);
+            entityManager.persist(order);
+            entityManager.persist(new TestOrderLine(1, order, "widget"));
+            return null;
+        });
+    }
+}
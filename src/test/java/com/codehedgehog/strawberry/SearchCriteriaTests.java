@@ -0,0 +1,131 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class SearchCriteriaTests {
+
+    @Autowired
+    private TestModelRepository testModelRepository;
+
+    @Before
+    public void setUp() {
+        testModelRepository.deleteAllInBatch();
+        List<TestModel> models = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            models.add(new TestModel(i, i % 2 == 0 ? "even" : "odd", i));
+        }
+        testModelRepository.saveAll(models);
+    }
+
+    @Test
+    public void entriesAreOrderedByOperationKeepingTheOrderOfEqualOperations() {
+        SearchCriteria searchCriteria = new SearchCriteria("quantity", Arrays.asList(
+                new AbstractMap.SimpleEntry<>(SearchOperation.GREATER_THAN, "5"),
+                new AbstractMap.SimpleEntry<>(SearchOperation.EQUALS, "1"),
+                new AbstractMap.SimpleEntry<>(SearchOperation.LIKE, "2"),
+                new AbstractMap.SimpleEntry<>(SearchOperation.EQUALS, "3")));
+        assertEquals(SearchOperation.LIKE, searchCriteria.getOperation(0));
+        assertEquals(SearchOperation.EQUALS, searchCriteria.getOperation(1));
+        assertEquals("1", searchCriteria.getValue(1));
+        assertEquals(SearchOperation.EQUALS, searchCriteria.getOperation(2));
+        assertEquals("3", searchCriteria.getValue(2));
+        assertEquals(SearchOperation.GREATER_THAN, searchCriteria.getOperation(3));
+    }
+
+    @Test
+    public void changesToTheSourceEntriesAreNotSeen() {
+        List<Map.Entry<SearchOperation, Object>> entries = new ArrayList<>();
+        entries.add(new AbstractMap.SimpleEntry<>(SearchOperation.EQUALS, "alpha"));
+        SearchCriteria searchCriteria = new SearchCriteria("name", entries);
+        entries.get(0).setValue("beta");
+        entries.add(new AbstractMap.SimpleEntry<>(SearchOperation.LIKE, "gamma"));
+        assertEquals(1, searchCriteria.getOperationCount());
+        assertEquals("alpha", searchCriteria.getValue(0));
+    }
+
+    @Test
+    public void entriesCannotBeChangedThroughTheCriteria() {
+        SearchCriteria searchCriteria = new SearchCriteria("name", SearchOperation.EQUALS, "alpha");
+        List<Map.Entry<SearchOperation, Object>> entries = searchCriteria.getOperationValueEntries();
+        try {
+            entries.add(new AbstractMap.SimpleEntry<>(SearchOperation.LIKE, "beta"));
+            fail("Entries must be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            entries.get(0).setValue("beta");
+            fail("Entries must be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        SearchCriteria extendedCriteria = searchCriteria.withOperationValueEntry(SearchOperation.LIKE, "beta");
+        assertEquals(1, searchCriteria.getOperationCount());
+        assertEquals(2, extendedCriteria.getOperationCount());
+        assertEquals(SearchOperation.LIKE, extendedCriteria.getOperation(0));
+    }
+
+    @Test
+    public void criteriaSharingArraysKeepTheirOwnSlices() {
+        SearchOperation[] operations = {SearchOperation.GREATER_THAN, SearchOperation.EQUALS, SearchOperation.LIKE};
+        Object[] values = {"5", "1", "a"};
+        SearchCriteria quantityCriteria = new SearchCriteria("quantity", operations, values, 0, 2);
+        SearchCriteria nameCriteria = new SearchCriteria("name", operations, values, 2, 1);
+        SearchCriteria extendedCriteria = quantityCriteria.withOperationValueEntry(SearchOperation.LESS_THAN, "9");
+        assertEquals(2, quantityCriteria.getOperationCount());
+        assertEquals(SearchOperation.EQUALS, quantityCriteria.getOperation(0));
+        assertEquals(SearchOperation.GREATER_THAN, quantityCriteria.getOperation(1));
+        assertEquals(1, nameCriteria.getOperationCount());
+        assertEquals("a", nameCriteria.getValue(0));
+        assertEquals(Arrays.asList("1", "9", "5"), Arrays.asList(extendedCriteria.getValue(0),
+                extendedCriteria.getValue(1), extendedCriteria.getValue(2)));
+        try {
+            quantityCriteria.getValue(2);
+            fail("Index past the slice must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void criteriaAndSpecificationsAreSafelyReusedAcrossThreads() throws Exception {
+        SearchCriteria nameCriteria = new SearchCriteria("name", SearchOperation.EQUALS, "even");
+        SearchCriteria quantityCriteria = new SearchCriteria("quantity", Arrays.asList(
+                new AbstractMap.SimpleEntry<>(SearchOperation.GREATER_THAN, "4"),
+                new AbstractMap.SimpleEntry<>(SearchOperation.LESS_THAN, "15")));
+        Specification<TestModel> evenSpecification = new SpecificationBuilder<>(TestModel.class)
+                .with(Arrays.asList(nameCriteria, quantityCriteria)).build();
+        Specification<TestModel> allEvenSpecification = new SpecificationBuilder<>(TestModel.class)
+                .with(Collections.singletonList(nameCriteria)).build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                boolean bounded = i % 2 == 0;
+                results.add(executor.submit(() -> bounded
+                        ? testModelRepository.findAll(evenSpecification).size() == 5
+                        : testModelRepository.findAll(allEvenSpecification).size() == 10));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(SearchOperation.LESS_THAN, quantityCriteria.getOperation(0));
+        assertEquals(SearchOperation.GREATER_THAN, quantityCriteria.getOperation(1));
+    }
+}
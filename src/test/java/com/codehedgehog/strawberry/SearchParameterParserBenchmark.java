@@ -0,0 +1,42 @@
+package com.codehedgehog.strawberry;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a typical filtered list request into search criteria. Run after "mvn test-compile" with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main SearchParameterParserBenchmark -prof gc}, where the
+ * "gc.alloc.rate.norm" result gives the bytes allocated per parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchParameterParserBenchmark {
+    private SearchParameterParser<TestModel> searchParameterParser;
+    private Map<String, String[]> parameters;
+
+    @Setup
+    public void setUp() {
+        searchParameterParser = new SearchParameterParser<>(TestModel.class);
+        parameters = new LinkedHashMap<>();
+        parameters.put("filter.name", new String[] {"alpha"});
+        parameters.put("filter.name.like", new String[] {"al", "ph"});
+        parameters.put("filter.quantity.greater", new String[] {"3"});
+        parameters.put("filter.quantity.less", new String[] {"10"});
+        parameters.put("filter.createdBy.null", new String[] {"false"});
+        parameters.put("filter.sort", new String[] {"name"});
+        parameters.put("filter.count", new String[] {"20"});
+    }
+
+    @Benchmark
+    public List<SearchCriteria> parse() {
+        return searchParameterParser.parse(parameters);
+    }
+}
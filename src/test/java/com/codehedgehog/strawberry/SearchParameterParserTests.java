@@ -0,0 +1,114 @@
+package com.codehedgehog.strawberry;
+
+import com.codehedgehog.strawberry.exceptions.BadRequestException;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SearchParameterParserTests {
+
+    private final SearchParameterParser<TestModel> searchParameterParser =
+            new SearchParameterParser<>(TestModel.class);
+
+    @Test
+    public void filterKeywordsAreMatched() {
+        assertOperation("filter.name", "a", SearchOperation.EQUALS);
+        assertOperation("filter.name.equal", "a", SearchOperation.EQUALS);
+        assertOperation("filter.name.equals", "a", SearchOperation.EQUALS);
+        assertOperation("filter.name.not", "a", SearchOperation.NOT_EQUAL);
+        assertOperation("filter.name.like", "a", SearchOperation.LIKE);
+        assertOperation("filter.name.starts", "a", SearchOperation.STARTS);
+        assertOperation("filter.name.ends", "a", SearchOperation.ENDS);
+        assertOperation("filter.quantity.less", "1", SearchOperation.LESS_THAN);
+        assertOperation("filter.quantity.greater", "1", SearchOperation.GREATER_THAN);
+        assertOperation("filter.modified.before", "2019-01-01", SearchOperation.LESS_THAN);
+        assertOperation("filter.modified.after", "2019-01-01", SearchOperation.GREATER_THAN);
+        assertOperation("filter.name.null", "true", SearchOperation.NULL);
+        assertOperation("filter.name.null", "FALSE", SearchOperation.NOT_NULL);
+    }
+
+    @Test
+    public void leastAndGreatestKeywordsAreMatched() {
+        List<SearchCriteria> searchCriteriaList = parse("filter.min", "quantity", "filter.greatest", "modified");
+        assertEquals(2, searchCriteriaList.size());
+        assertEquals("min", searchCriteriaList.get(0).getKey());
+        assertEquals(SearchOperation.LEAST, searchCriteriaList.get(0).getOperation(0));
+        assertEquals("quantity", searchCriteriaList.get(0).getValue(0));
+        assertEquals("max", searchCriteriaList.get(1).getKey());
+        assertEquals(SearchOperation.GREATEST, searchCriteriaList.get(1).getOperation(0));
+    }
+
+    @Test
+    public void keysThatAreNotFiltersAreIgnored() {
+        assertTrue(parse("name", "a", "filter.sort", "name", "filter.count", "5", "filter.start", "1",
+                "filter.include", "name", "filter.unknown", "a", "filter.name.unknown", "a", "filter.", "a",
+                "filter..name", "a", "filter.name.", "a").isEmpty());
+    }
+
+    @Test
+    public void operationsOnAFieldAreGatheredInOrderOfOperation() {
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        parameters.put("filter.quantity.greater", new String[] {"1"});
+        parameters.put("filter.name", new String[] {"alpha", "beta"});
+        parameters.put("filter.quantity.less", new String[] {"9"});
+        parameters.put("filter.name.like", new String[] {"gam"});
+        List<SearchCriteria> searchCriteriaList = searchParameterParser.parse(parameters);
+
+        assertEquals(2, searchCriteriaList.size());
+        SearchCriteria quantityCriteria = searchCriteriaList.get(0);
+        assertEquals("quantity", quantityCriteria.getKey());
+        assertEquals(2, quantityCriteria.getOperationCount());
+        assertEquals(SearchOperation.LESS_THAN, quantityCriteria.getOperation(0));
+        assertEquals("9", quantityCriteria.getValue(0));
+        assertEquals(SearchOperation.GREATER_THAN, quantityCriteria.getOperation(1));
+        assertEquals("1", quantityCriteria.getValue(1));
+
+        SearchCriteria nameCriteria = searchCriteriaList.get(1);
+        assertEquals("name", nameCriteria.getKey());
+        assertEquals(3, nameCriteria.getOperationCount());
+        assertEquals(SearchOperation.LIKE, nameCriteria.getOperation(0));
+        assertEquals("gam", nameCriteria.getValue(0));
+        assertEquals("alpha", nameCriteria.getValue(1));
+        assertEquals("beta", nameCriteria.getValue(2));
+    }
+
+    @Test
+    public void keysAreReusedBetweenParses() {
+        SearchCriteria first = parse("filter.name.like", "a").get(0);
+        SearchCriteria second = parse("filter.name", "b").get(0);
+        assertEquals("name", first.getKey());
+        assertSame(first.getKey(), second.getKey());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void nullTakesOnlyTrueOrFalse() {
+        parse("filter.name.null", "maybe");
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void operationMustSuitTheFieldType() {
+        parse("filter.name.greater", "a");
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void leastOfAnUnknownFieldIsRejected() {
+        parse("filter.least", "unknown");
+    }
+
+    private void assertOperation(String key, String value, SearchOperation operation) {
+        List<SearchCriteria> searchCriteriaList = parse(key, value);
+        assertEquals(key, 1, searchCriteriaList.size());
+        assertEquals(key, operation, searchCriteriaList.get(0).getOperation(0));
+        assertEquals(key, value, searchCriteriaList.get(0).getValue(0));
+    }
+
+    private List<SearchCriteria> parse(String... keysAndValues) {
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            parameters.put(keysAndValues[i], new String[] {keysAndValues[i + 1]});
+        }
+        return searchParameterParser.parse(parameters);
+    }
+}
@@ -0,0 +1,9 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+@SpringBootApplication
+@EnableJpaRepositories(repositoryBaseClass = BaseJpaRepositoryImpl.class)
+public class TestApplication {
+}
@@ -0,0 +1,33 @@
+package com.codehedgehog.strawberry;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+@Entity
+public class TestCustomer {
+    @Id
+    private Integer id;
+    private String name;
+    private String region;
+
+    public TestCustomer() {
+    }
+
+    public TestCustomer(Integer id, String name, String region) {
+        this.id = id;
+        this.name = name;
+        this.region = region;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+}
@@ -0,0 +1,27 @@
+package com.codehedgehog.strawberry;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+
+@Entity
+public class TestEmbeddedIdModel {
+    @EmbeddedId
+    private TestModelKey key;
+    private String name;
+
+    public TestEmbeddedIdModel() {
+    }
+
+    public TestEmbeddedIdModel(TestModelKey key, String name) {
+        this.key = key;
+        this.name = name;
+    }
+
+    public TestModelKey getKey() {
+        return key;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
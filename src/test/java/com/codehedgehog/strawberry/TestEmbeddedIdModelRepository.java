@@ -0,0 +1,4 @@
+package com.codehedgehog.strawberry;
+
+public interface TestEmbeddedIdModelRepository extends BaseJpaRepository<TestEmbeddedIdModel, TestModelKey> {
+}
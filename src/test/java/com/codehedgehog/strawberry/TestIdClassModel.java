@@ -0,0 +1,36 @@
+package com.codehedgehog.strawberry;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+
+@Entity
+@IdClass(TestModelKey.class)
+public class TestIdClassModel {
+    @Id
+    private String region;
+    @Id
+    private Integer number;
+    private String name;
+
+    public TestIdClassModel() {
+    }
+
+    public TestIdClassModel(String region, Integer number, String name) {
+        this.region = region;
+        this.number = number;
+        this.name = name;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public Integer getNumber() {
+        return number;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
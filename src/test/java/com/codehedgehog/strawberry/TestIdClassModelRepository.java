@@ -0,0 +1,4 @@
+package com.codehedgehog.strawberry;
+
+public interface TestIdClassModelRepository extends BaseJpaRepository<TestIdClassModel, TestModelKey> {
+}
@@ -0,0 +1,44 @@
+package com.codehedgehog.strawberry;
+
+import javax.persistence.Embeddable;
+import java.io.Serializable;
+import java.util.Objects;
+
+@Embeddable
+public class TestModelKey implements Serializable {
+    private String region;
+    private Integer number;
+
+    public TestModelKey() {
+    }
+
+    public TestModelKey(String region, Integer number) {
+        this.region = region;
+        this.number = number;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public Integer getNumber() {
+        return number;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TestModelKey)) {
+            return false;
+        }
+        TestModelKey that = (TestModelKey) o;
+        return Objects.equals(region, that.region) && Objects.equals(number, that.number);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(region, number);
+    }
+}
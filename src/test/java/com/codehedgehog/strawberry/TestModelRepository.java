@@ -0,0 +1,4 @@
+package com.codehedgehog.strawberry;
+
+public interface TestModelRepository extends BaseJpaRepository<TestModel, Integer> {
+}
@@ -0,0 +1,11 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.stereotype.Service;
+
+@Service
+public class TestModelService extends RestfulService<TestModelRepository, TestModel, Integer> {
+
+    public TestModelService(TestModelRepository testModelRepository) {
+        super(testModelRepository);
+    }
+}
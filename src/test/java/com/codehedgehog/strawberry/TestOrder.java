@@ -0,0 +1,38 @@
+package com.codehedgehog.strawberry;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import java.util.ArrayList;
+import java.util.List;
+
+@Entity
+public class TestOrder {
+    @Id
+    private Integer id;
+    @ManyToOne
+    private TestCustomer customer;
+    @OneToMany(mappedBy = "order")
+    private List<TestOrderLine> lines = new ArrayList<>();
+
+    public TestOrder() {
+    }
+
+    public TestOrder(Integer id, TestCustomer customer) {
+        this.id = id;
+        this.customer = customer;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public TestCustomer getCustomer() {
+        return customer;
+    }
+
+    public List<TestOrderLine> getLines() {
+        return lines;
+    }
+}
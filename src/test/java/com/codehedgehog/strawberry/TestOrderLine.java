@@ -0,0 +1,35 @@
+package com.codehedgehog.strawberry;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+
+@Entity
+public class TestOrderLine {
+    @Id
+    private Integer id;
+    @ManyToOne
+    private TestOrder order;
+    private String product;
+
+    public TestOrderLine() {
+    }
+
+    public TestOrderLine(Integer id, TestOrder order, String product) {
+        this.id = id;
+        this.order = order;
+        this.product = product;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public TestOrder getOrder() {
+        return order;
+    }
+
+    public String getProduct() {
+        return product;
+    }
+}
@@ -0,0 +1,4 @@
+package com.codehedgehog.strawberry;
+
+public interface TestOrderRepository extends BaseJpaRepository<TestOrder, Integer> {
+}
@@ -0,0 +1,11 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.stereotype.Service;
+
+@Service
+public class TestOrderService extends RestfulService<TestOrderRepository, TestOrder, Integer> {
+
+    public TestOrderService(TestOrderRepository testOrderRepository) {
+        super(testOrderRepository);
+    }
+}
@@ -0,0 +1,64 @@
+package com.codehedgehog.strawberry;
+
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.boot.orm.jpa.hibernate.SpringPhysicalNamingStrategy;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link TestModelRepository} over its own embedded H2 database, standing in for one partition of a
+ * {@link PartitionedRestfulService}
+ */
+public class TestPartition implements AutoCloseable {
+    private final EmbeddedDatabase database;
+    private final LocalContainerEntityManagerFactoryBean entityManagerFactoryBean;
+    private final TestModelRepository repository;
+
+    public TestPartition(String name) {
+        this.database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).setName(name)
+                .generateUniqueName(true).build();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("hibernate.hbm2ddl.auto", "create-drop");
+        properties.put("hibernate.physical_naming_strategy", SpringPhysicalNamingStrategy.class.getName());
+        properties.put("hibernate.implicit_naming_strategy", SpringImplicitNamingStrategy.class.getName());
+        this.entityManagerFactoryBean = new LocalContainerEntityManagerFactoryBean();
+        this.entityManagerFactoryBean.setDataSource(database);
+        this.entityManagerFactoryBean.setPackagesToScan(TestModel.class.getPackage().getName());
+        this.entityManagerFactoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        this.entityManagerFactoryBean.setJpaPropertyMap(properties);
+        this.entityManagerFactoryBean.setPersistenceUnitName(name);
+        this.entityManagerFactoryBean.afterPropertiesSet();
+
+        EntityManagerFactory entityManagerFactory = entityManagerFactoryBean.getObject();
+        TransactionInterceptor transactionInterceptor = new TransactionInterceptor(
+                new JpaTransactionManager(entityManagerFactory), new AnnotationTransactionAttributeSource());
+        JpaRepositoryFactory repositoryFactory = new JpaRepositoryFactory(
+                SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory));
+        repositoryFactory.setRepositoryBaseClass(BaseJpaRepositoryImpl.class);
+        repositoryFactory.addRepositoryProxyPostProcessor(
+                (proxyFactory, repositoryInformation) -> proxyFactory.addAdvice(transactionInterceptor));
+        this.repository = repositoryFactory.getRepository(TestModelRepository.class);
+    }
+
+    public TestModelRepository getRepository() {
+        return repository;
+    }
+
+    @Override
+    public void close() {
+        entityManagerFactoryBean.destroy();
+        database.shutdown();
+    }
+}
@@ -0,0 +1,194 @@
+package com.codehedgehog.strawberry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class UpsertTests {
+
+    @Autowired
+    private TestModelRepository testModelRepository;
+
+    @Autowired
+    private TestModelService testModelService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        testModelRepository.deleteAllInBatch();
+        TestModel existing = new TestModel(1, "alpha", 1);
+        existing.setCreatedBy("loader");
+        testModelRepository.save(existing);
+    }
+
+    @Test
+    public void upsertUpdatesExistingRowsAndInsertsNewOnes() {
+        UpsertResult result = testModelService.upsertObjects(
+                Arrays.asList(getStaleModel(1, "renamed"), new TestModel(2, "beta", 2)), 10, 100);
+        assertEquals(1, result.getInserted());
+        assertEquals(1, result.getUpdated());
+        TestModel updated = testModelRepository.findById(1).orElseThrow(IllegalStateException::new);
+        assertEquals("renamed", updated.getName());
+        assertEquals("loader", updated.getCreatedBy());
+        assertEquals(Long.valueOf(1), updated.getVersion());
+        TestModel inserted = testModelRepository.findById(2).orElseThrow(IllegalStateException::new);
+        assertEquals(Long.valueOf(0), inserted.getVersion());
+    }
+
+    @Test
+    public void mysqlUpsertKeepsColumnsThatAreNotUpdatable() {
+        JdbcTemplate mysqlJdbcTemplate = new JdbcTemplate(
+                new DriverManagerDataSource("jdbc:h2:mem:upsert_mysql;MODE=MySQL;DB_CLOSE_DELAY=-1"));
+        mysqlJdbcTemplate.execute("CREATE TABLE test_model (id INT PRIMARY KEY, name VARCHAR(255), "
+                + "quantity INT, created_by VARCHAR(255), version BIGINT, modified TIMESTAMP)");
+        EntityTableMapping<TestModel> mapping =
+                new EntityTableMapping<>(TestModel.class, entityManagerFactory);
+        String upsertSql = UpsertDialect.MYSQL.getUpsertSql(mapping);
+        TestModel model = new TestModel(1, "alpha", 1);
+        model.setCreatedBy("loader");
+        mysqlJdbcTemplate.update(upsertSql, getMysqlValues(mapping, model));
+        mysqlJdbcTemplate.update(upsertSql, getMysqlValues(mapping, getStaleModel(1, "renamed")));
+        Map<String, Object> row = mysqlJdbcTemplate.queryForMap("SELECT * FROM test_model WHERE id = 1");
+        assertEquals("renamed", row.get("NAME"));
+        assertEquals("loader", row.get("CREATED_BY"));
+        assertEquals(1L, row.get("VERSION"));
+    }
+
+    @Test
+    public void dialectIsPickedByDatabaseName() {
+        assertEquals(UpsertDialect.POSTGRESQL, UpsertDialect.forDatabase("PostgreSQL"));
+        assertEquals(UpsertDialect.MYSQL, UpsertDialect.forDatabase("MySQL"));
+        assertEquals(UpsertDialect.MYSQL, UpsertDialect.forDatabase("MariaDB"));
+        assertEquals(UpsertDialect.MERGE, UpsertDialect.forDatabase("H2"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unknownDatabaseIsRejected() {
+        UpsertDialect.forDatabase("Oracle");
+    }
+
+    @Test
+    public void attributeOverridesRenameEmbeddedColumns() {
+        EntityTableMapping<OverriddenModel> mapping =
+                new EntityTableMapping<>(OverriddenModel.class, entityManagerFactory);
+        assertEquals(Arrays.asList("id", "home_street", "city"), mapping.getColumnNames());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void inheritanceIsRejected() {
+        new EntityTableMapping<>(InheritedModel.class, entityManagerFactory);
+    }
+
+    @Test
+    public void namesComeFromTheHibernateMapping() {
+        EntityTableMapping<TestModel> mapping = new EntityTableMapping<>(TestModel.class, entityManagerFactory);
+        assertEquals("test_model", mapping.getTableName());
+        assertEquals(Arrays.asList("id", "name", "quantity", "created_by", "version", "modified"),
+                mapping.getColumnNames());
+        assertEquals(Collections.singletonList("id"), mapping.getIdColumnNames());
+        EntityTableMapping<TestOrder> orderMapping = new EntityTableMapping<>(TestOrder.class, entityManagerFactory);
+        assertEquals(Arrays.asList("id", "customer_id"), orderMapping.getColumnNames());
+    }
+
+    @Test
+    public void postgresqlUpsertUpdatesOnConflict() {
+        EntityTableMapping<TestModel> mapping = new EntityTableMapping<>(TestModel.class, entityManagerFactory);
+        assertEquals("INSERT INTO test_model AS t (id, name, quantity, created_by, version, modified) "
+                        + "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (id) DO UPDATE SET name = EXCLUDED.name, "
+                        + "quantity = EXCLUDED.quantity, modified = EXCLUDED.modified, version = t.version + 1",
+                UpsertDialect.POSTGRESQL.getUpsertSql(mapping));
+    }
+
+    @Test
+    public void postgresqlUpsertDoesNothingWithoutUpdatableColumns() {
+        EntityTableMapping<TestIdClassModel> mapping =
+                new EntityTableMapping<>(TestIdClassModel.class, entityManagerFactory);
+        assertEquals("INSERT INTO test_id_class_model AS t (region, number, name) VALUES (?, ?, ?) "
+                        + "ON CONFLICT (region, number) DO UPDATE SET name = EXCLUDED.name",
+                UpsertDialect.POSTGRESQL.getUpsertSql(mapping));
+        EntityTableMapping<KeyOnlyModel> keyOnlyMapping =
+                new EntityTableMapping<>(KeyOnlyModel.class, entityManagerFactory);
+        assertEquals("INSERT INTO key_only_model AS t (id) VALUES (?) ON CONFLICT (id) DO NOTHING",
+                UpsertDialect.POSTGRESQL.getUpsertSql(keyOnlyMapping));
+    }
+
+    @Test
+    public void mysqlUpsertUpdatesOnDuplicateKey() {
+        EntityTableMapping<TestModel> mapping = new EntityTableMapping<>(TestModel.class, entityManagerFactory);
+        assertEquals("INSERT INTO test_model (id, name, quantity, created_by, version, modified) "
+                        + "VALUES (?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE name = VALUES(name), "
+                        + "quantity = VALUES(quantity), modified = VALUES(modified), version = version + 1",
+                UpsertDialect.MYSQL.getUpsertSql(mapping));
+        EntityTableMapping<KeyOnlyModel> keyOnlyMapping =
+                new EntityTableMapping<>(KeyOnlyModel.class, entityManagerFactory);
+        assertEquals("INSERT INTO key_only_model (id) VALUES (?) ON DUPLICATE KEY UPDATE id = id",
+                UpsertDialect.MYSQL.getUpsertSql(keyOnlyMapping));
+    }
+
+    @Test
+    public void existingRowsAreCountedByEveryIdColumn() {
+        EntityTableMapping<TestIdClassModel> mapping =
+                new EntityTableMapping<>(TestIdClassModel.class, entityManagerFactory);
+        assertEquals("SELECT COUNT(*) FROM test_id_class_model WHERE (region = ? AND number = ?) "
+                + "OR (region = ? AND number = ?)", UpsertDialect.POSTGRESQL.getExistingCountSql(mapping, 2));
+    }
+
+    private static Object[] getMysqlValues(EntityTableMapping<TestModel> mapping, TestModel model) {
+        return UpsertDialect.MYSQL.getUpsertValues(mapping, mapping.getColumnValues(model));
+    }
+
+    private static TestModel getStaleModel(int id, String name) {
+        TestModel model = new TestModel(id, name, 3);
+        model.setCreatedBy("other");
+        model.setVersion(7L);
+        return model;
+    }
+
+    @Embeddable
+    static class Address {
+        private String street;
+        private String city;
+    }
+
+    @Entity
+    static class OverriddenModel {
+        @Id
+        private Integer id;
+        @Embedded
+        @AttributeOverride(name = "street", column = @Column(name = "home_street"))
+        private Address home;
+    }
+
+    @Entity
+    @Inheritance
+    static class InheritedModel {
+        @Id
+        private Integer id;
+    }
+
+    @Entity
+    @Table(name = "key_only_model")
+    static class KeyOnlyModel {
+        @Id
+        private Integer id;
+    }
+}